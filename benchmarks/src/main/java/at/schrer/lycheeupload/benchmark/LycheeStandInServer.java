@@ -0,0 +1,372 @@
+package at.schrer.lycheeupload.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small in-process stand-in for the "/php/index.php" API of a Lychee server, so benchmarks run offline and repeatably.
+ * It speaks "Session::login", "Albums::get", "Photo::add", "Album::add" and "Album::setPublic" like Lychee does towards
+ * a client: sessions are kept by the PHPSESSID cookie and a guest only gets the public albums and no other function.
+ * Uploaded images are counted and dropped.
+ * <p>
+ * It can also run on its own, e.g. as target for the load test of the CLI:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar at.schrer.lycheeupload.benchmark.LycheeStandInServer [port] [username] [password]
+ * </pre>
+ */
+public class LycheeStandInServer implements Closeable {
+
+    private static final String FUNCTION_NOT_FOUND = "Error: Function not found! Please check the spelling of the called function.";
+    private static final String SESSION_COOKIE = "PHPSESSID";
+
+    private final String username;
+    private final String password;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "lychee-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, StandInAlbum> albums = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextAlbumId = new AtomicInteger(1);
+    private final AtomicLong nextPhotoId = new AtomicLong(1);
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    /**
+     * Creates the server on a free port of the loopback interface. It has to be started with {@link #start()}.
+     * @param username the user that can log in.
+     * @param password the password of the user.
+     * @throws IOException if no port can be bound.
+     */
+    public LycheeStandInServer(String username, String password) throws IOException {
+        this(username, password, 0);
+    }
+
+    /**
+     * Creates the server on a port of the loopback interface. It has to be started with {@link #start()}.
+     * @param username the user that can log in.
+     * @param password the password of the user.
+     * @param port the port, 0 for a free one.
+     * @throws IOException if the port can't be bound.
+     */
+    public LycheeStandInServer(String username, String password, int port) throws IOException {
+        this.username = username;
+        this.password = password;
+        // Without it small responses wait for delayed ACKs, which caps every connection at about 25 requests per second
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/php/index.php", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * Runs the server until the process is stopped, with an album "Default" to upload into.
+     * @param args the port (default 8080), the username and the password (default "lychee" for both).
+     * @throws IOException if the port can't be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        String username = (args.length > 1) ? args[1] : "lychee";
+        String password = (args.length > 2) ? args[2] : "lychee";
+
+        LycheeStandInServer server = new LycheeStandInServer(username, password, port);
+        server.addAlbum("Default");
+        server.start();
+        System.out.println("Lychee stand-in listening on " + server.getServerAddress() + " for user " + username);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(
+                "Received " + server.getUploadCount() + " images, " + server.getUploadedBytes() / (1024 * 1024) + " MiB")));
+        // The handler threads are daemons, the main thread keeps the process alive
+        while (true) {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the address to pass to the uploader, e.g. "http://127.0.0.1:41234".
+     */
+    public String getServerAddress() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Adds an album, as if it had been created with "Album::add".
+     * @param title the title of the album.
+     * @return the ID of the album.
+     */
+    public String addAlbum(String title) {
+        int id = nextAlbumId.getAndIncrement();
+        albums.put(id, new StandInAlbum(id, title));
+        return Integer.toString(id);
+    }
+
+    /**
+     * @return the number of images uploaded so far.
+     */
+    public long getUploadCount() {
+        return nextPhotoId.get() - 1;
+    }
+
+    /**
+     * @return the size of all images uploaded so far, in bytes.
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "");
+                return;
+            }
+
+            Map<String, String> params = readParams(exchange);
+            String function = params.getOrDefault("function", "");
+            String session = getSession(exchange);
+
+            if ("Session::login".equals(function)) {
+                if (username.equals(params.get("user")) && password.equals(params.get("password"))) {
+                    String newSession = UUID.randomUUID().toString().replace("-", "");
+                    sessions.add(newSession);
+                    exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + newSession + "; path=/");
+                    respond(exchange, 200, "true");
+                } else {
+                    respond(exchange, 200, "false");
+                }
+                return;
+            }
+
+            boolean loggedIn = session != null && sessions.contains(session);
+
+            if ("Albums::get".equals(function)) {
+                respond(exchange, 200, albumsJSON(loggedIn).toString());
+            } else if (!loggedIn) {
+                respond(exchange, 200, FUNCTION_NOT_FOUND);
+            } else if ("Photo::add".equals(function)) {
+                respond(exchange, 200, addPhoto(params));
+            } else if ("Album::add".equals(function)) {
+                respond(exchange, 200, addAlbum(params.getOrDefault("title", "Untitled")));
+            } else if ("Album::setPublic".equals(function)) {
+                respond(exchange, 200, setPublic(params));
+            } else {
+                respond(exchange, 200, FUNCTION_NOT_FOUND);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String addPhoto(Map<String, String> params) {
+        if (!params.containsKey("0") || !albums.containsKey(parseId(params.get("albumID")))) {
+            return "Error: Missing parameters";
+        }
+        uploadedBytes.addAndGet(Long.parseLong(params.get("0")));
+        return Long.toString(nextPhotoId.getAndIncrement());
+    }
+
+    private String setPublic(Map<String, String> params) {
+        StandInAlbum album = albums.get(parseId(params.get("albumID")));
+        if (album == null) {
+            return "false";
+        }
+        album.publicAlbum = "1".equals(params.get("public"));
+        album.passwordProtected = params.get("password") != null && !params.get("password").isEmpty();
+        return "true";
+    }
+
+    private JSONObject albumsJSON(boolean loggedIn) {
+        JSONArray albumArray = new JSONArray();
+        for (StandInAlbum album : albums.values()) {
+            if (loggedIn || album.publicAlbum) {
+                JSONObject albumJSON = new JSONObject();
+                albumJSON.put("id", Integer.toString(album.id));
+                albumJSON.put("title", album.title);
+                albumJSON.put("password", album.passwordProtected ? "1" : "0");
+                albumJSON.put("public", album.publicAlbum ? "1" : "0");
+                albumArray.put(albumJSON);
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("albums", albumArray);
+        result.put("num", albumArray.length());
+
+        if (loggedIn) {
+            JSONObject smartAlbums = new JSONObject();
+            for (String smart : new String[]{"unsorted", "starred", "public", "recent"}) {
+                JSONObject smartJSON = new JSONObject();
+                smartJSON.put("num", "0");
+                smartAlbums.put(smart, smartJSON);
+            }
+            result.put("smartalbums", smartAlbums);
+        } else {
+            result.put("smartalbums", JSONObject.NULL);
+        }
+        return result;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String getSession(HttpExchange exchange) {
+        for (String header : exchange.getRequestHeaders().getOrDefault("Cookie", Collections.emptyList())) {
+            for (String cookie : header.split(";")) {
+                String[] nameValue = cookie.trim().split("=", 2);
+                if (nameValue.length == 2 && SESSION_COOKIE.equals(nameValue[0])) {
+                    return nameValue[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the parameters of a URL encoded or multipart request. For file parts only the size is kept, as value.
+     */
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            return readMultipart(body, contentType.substring(contentType.indexOf("boundary=") + "boundary=".length()));
+        }
+
+        Map<String, String> params = new HashMap<>();
+        for (String pair : new String(body, StandardCharsets.UTF_8).split("&")) {
+            String[] nameValue = pair.split("=", 2);
+            if (nameValue.length == 2) {
+                params.put(URLDecoder.decode(nameValue[0], StandardCharsets.UTF_8), URLDecoder.decode(nameValue[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static Map<String, String> readMultipart(byte[] body, String boundary) {
+        Map<String, String> params = new HashMap<>();
+        byte[] delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+
+        // position points to "--boundary", the line break before it belongs to the delimiter except for the first one
+        int position = indexOf(body, ("--" + boundary).getBytes(StandardCharsets.US_ASCII), 0);
+        while (position >= 0) {
+            int headersStart = position + delimiter.length;
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), headersStart);
+            if (headersEnd < 0) {
+                break;
+            }
+            int contentEnd = indexOf(body, delimiter, headersEnd + 4);
+            if (contentEnd < 0) {
+                break;
+            }
+
+            String headers = new String(body, headersStart, headersEnd - headersStart, StandardCharsets.UTF_8);
+            String name = headerParameter(headers, "name");
+            if (name != null) {
+                int contentStart = headersEnd + 4;
+                if (headerParameter(headers, "filename") != null) {
+                    params.put(name, Integer.toString(contentEnd - contentStart));
+                } else {
+                    params.put(name, new String(body, contentStart, contentEnd - contentStart, StandardCharsets.UTF_8));
+                }
+            }
+            position = contentEnd + 2;
+        }
+        return params;
+    }
+
+    private static String headerParameter(String headers, String parameter) {
+        String key = " " + parameter + "=\"";
+        int start = headers.indexOf(key);
+        if (start < 0) {
+            key = ";" + parameter + "=\"";
+            start = headers.indexOf(key);
+        }
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        return headers.substring(start, headers.indexOf('"', start));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static class StandInAlbum {
+        private final int id;
+        private final String title;
+        private volatile boolean publicAlbum = false;
+        private volatile boolean passwordProtected = false;
+
+        private StandInAlbum(int id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+    }
+}
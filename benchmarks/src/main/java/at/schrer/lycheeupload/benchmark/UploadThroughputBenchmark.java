@@ -0,0 +1,120 @@
+package at.schrer.lycheeupload.benchmark;
+
+import at.schrer.lycheeupload.upload.Album;
+import at.schrer.lycheeupload.upload.ConnectionSettings;
+import at.schrer.lycheeupload.upload.LycheeUploaderHttp;
+import org.apache.http.auth.AuthenticationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures whole requests of {@link LycheeUploaderHttp} against a {@link LycheeStandInServer} on the loopback interface,
+ * so the numbers cover request building, the connection pool, the session handling and response parsing together.
+ * Run with "-t" to change the number of concurrent uploads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadThroughputBenchmark {
+
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "benchmark";
+
+    @Param({"65536", "1048576"})
+    private int imageSize;
+
+    @Param({"100"})
+    private int albumCount;
+
+    private LycheeStandInServer server;
+    private LycheeUploaderHttp uploader;
+    private String albumId;
+    private byte[] image;
+
+    @Setup
+    public void start() throws IOException, AuthenticationException {
+        server = new LycheeStandInServer(USERNAME, PASSWORD);
+        server.start();
+
+        albumId = server.addAlbum("Benchmark");
+        for (int i = 1; i < albumCount; i++) {
+            server.addAlbum("Album " + i);
+        }
+
+        image = jpegOfSize(imageSize, new Random(42));
+
+        uploader = new LycheeUploaderHttp(server.getServerAddress(), USERNAME, PASSWORD, new ConnectionSettings());
+    }
+
+    /**
+     * Builds a valid JPEG of the given size, so the upload passes the content check: a small image of noise with comment
+     * segments of random bytes inserted after the start of image marker.
+     */
+    private static byte[] jpegOfSize(int size, Random random) throws IOException {
+        BufferedImage noise = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(noise, "jpeg", encoded);
+        byte[] jpeg = encoded.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(size, jpeg.length));
+        out.write(jpeg, 0, 2);
+        int missing = size - jpeg.length;
+        while (missing >= 4) {
+            int data = Math.min(missing - 4, 0xFFFF - 2);
+            byte[] comment = new byte[data];
+            random.nextBytes(comment);
+            out.write(0xFF);
+            out.write(0xFE);
+            out.write((data + 2) >>> 8);
+            out.write((data + 2) & 0xFF);
+            out.write(comment, 0, data);
+            missing -= data + 4;
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        uploader.close();
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String uploadImage() throws IOException {
+        return uploader.uploadImage(albumId, "benchmark.jpg", image);
+    }
+
+    @Benchmark
+    public List<Album> getStandardAlbums() throws IOException {
+        return uploader.getStandardAlbums();
+    }
+}
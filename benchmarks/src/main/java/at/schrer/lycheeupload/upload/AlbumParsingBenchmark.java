@@ -0,0 +1,74 @@
+package at.schrer.lycheeupload.upload;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding an "Albums::get" response with {@link AlbumStreamReader}, compared to parsing the whole document into a JSONObject first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlbumParsingBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    private int albumCount;
+
+    private String response;
+
+    @Setup
+    public void createResponse() {
+        JSONArray albums = new JSONArray();
+        for (int i = 1; i <= albumCount; i++) {
+            JSONObject album = new JSONObject();
+            album.put("id", Integer.toString(i));
+            album.put("title", "Album number " + i);
+            album.put("public", "0");
+            album.put("password", (i % 7 == 0) ? "1" : "0");
+            album.put("sysstamp", Integer.toString(1500000000 + i));
+            albums.put(album);
+        }
+
+        JSONObject smartAlbums = new JSONObject();
+        for (String smart : new String[]{"unsorted", "starred", "public", "recent"}) {
+            smartAlbums.put(smart, new JSONObject().put("num", "3"));
+        }
+
+        response = new JSONObject().put("albums", albums).put("smartalbums", smartAlbums).put("num", albumCount).toString();
+    }
+
+    @Benchmark
+    public void streamReader(Blackhole blackhole) throws IOException {
+        try (AlbumStreamReader reader = new AlbumStreamReader(new StringReader(response))) {
+            reader.forEachRemaining(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public void wholeDocument(Blackhole blackhole) {
+        JSONArray albums = new JSONObject(response).getJSONArray("albums");
+        for (int i = 0; i < albums.length(); i++) {
+            JSONObject album = albums.getJSONObject(i);
+            blackhole.consume(new Album(album.getString("id"), album.getString("title"), !"0".equals(album.getString("password"))));
+        }
+    }
+}
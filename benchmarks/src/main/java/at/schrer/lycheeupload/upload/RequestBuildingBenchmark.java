@@ -0,0 +1,102 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and writing request bodies the way {@link LycheeUploaderHttp} does, without any network.
+ * Lives in the package of the uploader to reach its package private entity factories.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBuildingBenchmark {
+
+    @Param({"65536", "4194304"})
+    private int imageSize;
+
+    private byte[] image;
+    private Path imageFile;
+
+    @Setup(Level.Trial)
+    public void createImage() throws IOException {
+        image = new byte[imageSize];
+        new Random(42).nextBytes(image);
+        imageFile = Files.createTempFile("lychee-benchmark", ".jpg");
+        Files.write(imageFile, image);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImage() throws IOException {
+        Files.deleteIfExists(imageFile);
+    }
+
+    /**
+     * The form body of "Album::setPublic", the request with the most text parameters.
+     */
+    @Benchmark
+    public long formEntity() throws IOException {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("function", "Album::setPublic"));
+        params.add(new BasicNameValuePair("albumID", "12"));
+        params.add(new BasicNameValuePair("password", "secret pass"));
+        params.add(new BasicNameValuePair("downloadable", "1"));
+        params.add(new BasicNameValuePair("visible", "1"));
+        params.add(new BasicNameValuePair("public", "1"));
+
+        return writeOut(LycheeUploaderHttp.createFormEntity(params));
+    }
+
+    @Benchmark
+    public long multipartFromMemory() throws IOException {
+        return writeOut(LycheeUploaderHttp.createUploadEntity("12", new ByteArrayBody(image, ContentType.IMAGE_JPEG, "image.jpg")));
+    }
+
+    @Benchmark
+    public long multipartFromFile() throws IOException {
+        File file = imageFile.toFile();
+        return writeOut(LycheeUploaderHttp.createUploadEntity("12", new FileBody(file, ContentType.IMAGE_JPEG, file.getPath())));
+    }
+
+    @Benchmark
+    public long multipartFromFileChannel() throws IOException {
+        try (FileChannelBody body = FileChannelBody.open(imageFile, imageFile.toString())) {
+            return writeOut(LycheeUploaderHttp.createUploadEntity("12", body));
+        }
+    }
+
+    private static long writeOut(HttpEntity entity) throws IOException {
+        entity.writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+        return entity.getContentLength();
+    }
+}
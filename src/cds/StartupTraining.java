@@ -0,0 +1,217 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records the AppCDS archive of the CLI for the "cds" profile and measures its startup time. Runs with the source launcher:
+ * <pre>
+ * java src/cds/StartupTraining.java train target/lycheeUpload.jar target/lycheeUpload.jsa
+ * java src/cds/StartupTraining.java measure target/lycheeUpload.jar target/lycheeUpload.jsa [runs] [baseline jar]
+ * </pre>
+ * Both start a small stand-in for the Lychee API on the loopback interface and run the CLI jar in separate JVMs against it.
+ * "train" runs a batch with every kind of command, so the archive holds the classes of listing, creating and uploading.
+ * "measure" lists the albums repeatedly and prints the median wall time of each variant. The baseline is the jar started with
+ * the default flags, which since JDK 12 already map the JDK's own CDS archive. It is followed by the jar with the AppCDS
+ * archive and, for reference, with CDS switched off entirely. A baseline jar, e.g. one built before a change, is measured
+ * with the default flags as well.
+ */
+public class StartupTraining {
+
+    private static final String USER = "training";
+    private static final String PASSWORD = "training";
+    private static final Pattern MULTIPART_FUNCTION = Pattern.compile("name=\"function\"\r\n(?:[^\r\n]+\r\n)*\r\n([^\r\n]*)");
+
+    private final Map<String, String> albums = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java StartupTraining.java <train|measure> <jar> <archive> [runs] [baseline jar]");
+            System.exit(1);
+        }
+
+        Path jar = Path.of(args[1]);
+        Path archive = Path.of(args[2]);
+        Path work = Files.createTempDirectory("lycheeupload-cds");
+        Path config = Files.createFile(work.resolve("lycheeupload.conf"));
+
+        HttpServer server = new StartupTraining().start();
+        try {
+            String address = "http://127.0.0.1:" + server.getAddress().getPort();
+            if ("train".equals(args[0])) {
+                train(jar, archive, address, config, work);
+            } else {
+                measure(jar, archive, address, config, args.length > 3 ? Integer.parseInt(args[3]) : 10,
+                        args.length > 4 ? Path.of(args[4]) : null);
+            }
+        } finally {
+            server.stop(0);
+            for (File file : work.toFile().listFiles()) {
+                file.delete();
+            }
+            work.toFile().delete();
+        }
+        // The server's dispatcher thread is not a daemon
+        System.exit(0);
+    }
+
+    private static void train(Path jar, Path archive, String address, Path config, Path work) throws Exception {
+        Path image = work.resolve("training.jpg");
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpg", image.toFile());
+
+        Path commands = work.resolve("training.jsonl");
+        Files.write(commands, Arrays.asList(
+                "{\"op\":\"list\"}",
+                "{\"op\":\"create\",\"title\":\"Training\"}",
+                "{\"op\":\"upload\",\"file\":\"" + image.toString().replace("\\", "\\\\") + "\",\"album\":\"Training\"}",
+                "{\"op\":\"access\",\"album\":\"Training\",\"public\":true,\"visible\":true}"),
+                StandardCharsets.UTF_8);
+
+        Files.deleteIfExists(archive);
+        int exit = run(jar, "-XX:ArchiveClassesAtExit=" + archive, address, config, "-b", commands.toString());
+        if (exit != 0 || !Files.exists(archive)) {
+            throw new IOException("Training run failed with exit code " + exit + ", no archive written.");
+        }
+        System.out.println("Wrote " + archive + " (" + Files.size(archive) / 1024 + " KiB)");
+    }
+
+    private static void measure(Path jar, Path archive, String address, Path config, int runs, Path baselineJar) throws Exception {
+        List<String[]> variants = new ArrayList<>();
+        if (baselineJar != null) {
+            variants.add(new String[]{"baseline " + baselineJar.getFileName(), baselineJar.toString(), null});
+        }
+        variants.add(new String[]{"default flags (JDK CDS)", jar.toString(), null});
+        variants.add(new String[]{"with " + archive.getFileName(), jar.toString(), "-XX:SharedArchiveFile=" + archive});
+        variants.add(new String[]{"CDS off (-Xshare:off)", jar.toString(), "-Xshare:off"});
+
+        System.out.println("Median wall time of \"-l\" over " + runs + " runs:");
+        for (String[] variant : variants) {
+            Path variantJar = Path.of(variant[1]);
+            // One run to warm the file system cache
+            run(variantJar, variant[2], address, config, "-l");
+
+            long[] millis = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                run(variantJar, variant[2], address, config, "-l");
+                millis[i] = (System.nanoTime() - start) / 1000000;
+            }
+            Arrays.sort(millis);
+            System.out.println(String.format("  %-36s %5d ms (min %d ms)", variant[0], millis[runs / 2], millis[0]));
+        }
+    }
+
+    private static int run(Path jar, String jvmOption, String address, Path config, String... cliArgs) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // Without an option the JVM starts with the default flags
+        if (jvmOption != null) {
+            command.add(jvmOption);
+        }
+        command.addAll(Arrays.asList("-Xlog:cds=off", "-Xlog:cds+dynamic=off", "-jar", jar.toString()));
+        command.addAll(Arrays.asList(cliArgs));
+        command.addAll(Arrays.asList("--server", address, "--user", USER, "--password", PASSWORD,
+                "--config", config.toString(), "--no-session"));
+
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        return process.waitFor();
+    }
+
+    private HttpServer start() throws IOException {
+        albums.put("1", "Default");
+        nextId.set(2);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/php/index.php", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+
+        String function = function(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+        String response;
+        switch (function) {
+            case "Session::login":
+                exchange.getResponseHeaders().add("Set-Cookie", "PHPSESSID=training; path=/");
+                response = "true";
+                break;
+            case "Albums::get":
+                StringBuilder json = new StringBuilder("{\"smartalbums\":{\"unsorted\":{\"num\":\"0\"}},\"albums\":[");
+                for (Map.Entry<String, String> album : albums.entrySet()) {
+                    json.append(json.charAt(json.length() - 1) == '[' ? "" : ",")
+                            .append("{\"id\":\"").append(album.getKey()).append("\",\"title\":\"").append(album.getValue())
+                            .append("\",\"password\":\"0\"}");
+                }
+                response = json.append("],\"num\":").append(albums.size()).append("}").toString();
+                break;
+            case "Album::add":
+                String id = Integer.toString(nextId.getAndIncrement());
+                albums.put(id, param(body, "title"));
+                response = id;
+                break;
+            case "Photo::add":
+                response = Integer.toString(nextId.getAndIncrement());
+                break;
+            default:
+                response = "true";
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String function(String contentType, String body) {
+        if (contentType != null && contentType.startsWith("multipart/")) {
+            Matcher matcher = MULTIPART_FUNCTION.matcher(body);
+            return matcher.find() ? matcher.group(1) : "";
+        }
+        return param(body, "function");
+    }
+
+    private static String param(String body, String name) {
+        for (String pair : body.split("&")) {
+            String[] nameValue = pair.split("=", 2);
+            if (nameValue.length == 2 && nameValue[0].equals(name)) {
+                return URLDecoder.decode(nameValue[1], StandardCharsets.UTF_8);
+            }
+        }
+        return "";
+    }
+}
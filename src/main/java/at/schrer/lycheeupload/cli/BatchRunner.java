@@ -0,0 +1,233 @@
+package at.schrer.lycheeupload.cli;
+
+import at.schrer.lycheeupload.upload.Album;
+import at.schrer.lycheeupload.upload.ImageTransformer;
+import at.schrer.lycheeupload.upload.LycheeUploaderHttp;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs commands read line by line over one logged in {@link LycheeUploaderHttp}, for option "-b".
+ * <p>
+ * Every line is a JSON object with the operation in "op":
+ * <pre>
+ * {"op":"upload", "file":"/photos/1.jpg", "album":"Vacation"}
+ * {"op":"list"}
+ * {"op":"create", "title":"Vacation"}
+ * {"op":"access", "album":"12", "public":true, "visible":true, "downloadable":false, "password":""}
+ * </pre>
+ * For every line one JSON object is written, in the order of the input, with "line", "op", "ok" and either the result
+ * ("imageId", "albumId", "albums") or "error". An "id" given in a command is copied to its result.
+ * <p>
+ * Uploads run concurrently. All other commands change or read the album list, so they wait for every command before them
+ * and every command after them waits for them. That way an upload into an album created a line before finds the album.
+ */
+class BatchRunner {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchRunner.class.getName());
+
+    private static final int PENDING_PER_THREAD = 64;
+
+    private final LycheeUploaderHttp uploader;
+    private final int threads;
+    private ImageTransformer imageTransformer;
+
+    /**
+     * @param uploader the logged in uploader to run the commands with.
+     * @param threads the number of commands that run at the same time.
+     */
+    BatchRunner(LycheeUploaderHttp uploader, int threads) {
+        this.uploader = uploader;
+        this.threads = threads;
+    }
+
+    /**
+     * @param imageTransformer the transformer applied to images before they are uploaded, or null to upload them unchanged.
+     */
+    void setImageTransformer(ImageTransformer imageTransformer) {
+        this.imageTransformer = imageTransformer;
+    }
+
+    /**
+     * Runs all commands until the end of the input and writes their results.
+     * @param in the commands, one per line. Empty lines are ignored.
+     * @param out where the results are written to, one per line.
+     * @return the number of commands that failed.
+     * @throws IOException if the input can't be read.
+     */
+    int run(BufferedReader in, PrintStream out) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // Bounded, so reading waits for the results instead of queueing all of a large input
+        BlockingQueue<CompletableFuture<JSONObject>> pending = new ArrayBlockingQueue<>(threads * PENDING_PER_THREAD);
+        CompletableFuture<JSONObject> endOfInput = new CompletableFuture<>();
+        CompletableFuture<Integer> writer = CompletableFuture.supplyAsync(() -> writeResults(pending, endOfInput, out));
+
+        try {
+            CompletableFuture<?> barrier = CompletableFuture.completedFuture(null);
+            List<CompletableFuture<?>> sinceBarrier = new ArrayList<>();
+            String line;
+            int lineNumber = 0;
+
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                int number = lineNumber;
+                JSONObject command;
+                try {
+                    command = new JSONObject(line);
+                } catch (JSONException e) {
+                    putPending(pending, CompletableFuture.completedFuture(failure(number, null, e)));
+                    continue;
+                }
+
+                CompletableFuture<JSONObject> result;
+                if ("upload".equals(command.optString("op"))) {
+                    result = barrier.thenApplyAsync(ignored -> execute(number, command), workers);
+                    sinceBarrier.add(result);
+                } else {
+                    sinceBarrier.add(barrier);
+                    result = CompletableFuture.allOf(sinceBarrier.toArray(new CompletableFuture<?>[0]))
+                            .thenApplyAsync(ignored -> execute(number, command), workers);
+                    barrier = result;
+                    sinceBarrier.clear();
+                }
+                putPending(pending, result);
+            }
+        } finally {
+            putPending(pending, endOfInput);
+        }
+
+        try {
+            return writer.join();
+        } finally {
+            // Not earlier, commands waiting for others are only handed to the workers when those finish
+            workers.shutdown();
+        }
+    }
+
+    private static int writeResults(BlockingQueue<CompletableFuture<JSONObject>> pending, CompletableFuture<JSONObject> endOfInput, PrintStream out) {
+        int failures = 0;
+        try {
+            CompletableFuture<JSONObject> next;
+            while ((next = pending.take()) != endOfInput) {
+                JSONObject result = next.join();
+                if (!result.getBoolean("ok")) {
+                    failures++;
+                }
+                out.println(result.toString());
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failures;
+    }
+
+    private static void putPending(BlockingQueue<CompletableFuture<JSONObject>> pending, CompletableFuture<JSONObject> result) throws IOException {
+        try {
+            pending.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for results.", e);
+        }
+    }
+
+    private JSONObject execute(int lineNumber, JSONObject command) {
+        String op = command.optString("op");
+        JSONObject result = newResult(lineNumber, command);
+
+        try {
+            switch (op) {
+                case "upload":
+                    result.put("imageId", upload(command.getString("file"), resolveAlbumId(command.getString("album"))));
+                    break;
+                case "list":
+                    JSONArray albums = new JSONArray();
+                    for (Album album : uploader.getStandardAlbums()) {
+                        albums.put(new JSONObject()
+                                .put("id", album.getAlbumId())
+                                .put("title", album.getName())
+                                .put("passwordProtected", album.isPasswordProtected()));
+                    }
+                    result.put("albums", albums);
+                    break;
+                case "create":
+                    String albumId = uploader.createAlbum(command.getString("title"));
+                    if (!albumId.matches("\\d+")) {
+                        throw new IOException("Could not create album. Server Response: " + albumId);
+                    }
+                    result.put("albumId", albumId);
+                    break;
+                case "access":
+                    uploader.setAlbumAccess(resolveAlbumId(command.getString("album")), command.optString("password", null),
+                            command.optBoolean("downloadable"), command.optBoolean("visible"), command.optBoolean("public"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + op);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Command in line " + lineNumber + " failed", e);
+            return failure(lineNumber, command, e);
+        }
+
+        return result.put("ok", true);
+    }
+
+    private String upload(String file, String albumId) throws IOException {
+        Path image = Paths.get(file);
+        byte[] transformed = (imageTransformer == null) ? null : imageTransformer.transform(image);
+
+        if (transformed == null) {
+            return uploader.uploadImage(albumId, file);
+        }
+        return uploader.uploadImage(albumId, image.getFileName().toString(), transformed);
+    }
+
+    /**
+     * Numbers are taken as IDs, everything else is looked up by title and used as ID if there is no album with that title,
+     * like for option "-u".
+     */
+    private String resolveAlbumId(String album) throws IOException {
+        if (album.matches("-?\\d+")) {
+            return album;
+        }
+
+        Album found = uploader.findAlbumByName(album);
+        return (found == null) ? album : found.getAlbumId();
+    }
+
+    private static JSONObject newResult(int lineNumber, JSONObject command) {
+        JSONObject result = new JSONObject().put("line", lineNumber);
+        if (command != null) {
+            if (command.has("id")) {
+                result.put("id", command.get("id"));
+            }
+            result.put("op", command.optString("op"));
+        }
+        return result;
+    }
+
+    private static JSONObject failure(int lineNumber, JSONObject command, Exception error) {
+        String message = (error.getMessage() == null) ? error.getClass().getSimpleName() : error.getMessage();
+        return newResult(lineNumber, command).put("ok", false).put("error", message);
+    }
+}
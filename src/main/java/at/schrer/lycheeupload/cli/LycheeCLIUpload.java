@@ -1,11 +1,50 @@
 package at.schrer.lycheeupload.cli;
 
+import at.schrer.lycheeupload.loadtest.LoadReport;
+import at.schrer.lycheeupload.loadtest.LoadTest;
+import at.schrer.lycheeupload.metrics.MetricsReporter;
+import at.schrer.lycheeupload.metrics.RequestMetrics;
+import at.schrer.lycheeupload.upload.AdaptiveLimiter;
 import at.schrer.lycheeupload.upload.Album;
+import at.schrer.lycheeupload.upload.AlbumAccess;
+import at.schrer.lycheeupload.upload.AlbumCache;
+import at.schrer.lycheeupload.upload.AlbumExporter;
+import at.schrer.lycheeupload.upload.BandwidthLimiter;
+import at.schrer.lycheeupload.upload.BulkUploader;
+import at.schrer.lycheeupload.upload.ChecksumIndex;
+import at.schrer.lycheeupload.upload.ConnectionSettings;
+import at.schrer.lycheeupload.upload.ExportReport;
+import at.schrer.lycheeupload.upload.ExportResult;
+import at.schrer.lycheeupload.upload.FanOutUploader;
+import at.schrer.lycheeupload.upload.FolderWatcher;
+import at.schrer.lycheeupload.upload.ImageTransformOptions;
+import at.schrer.lycheeupload.upload.ImageTransformer;
 import at.schrer.lycheeupload.upload.LycheeUploaderHttp;
+import at.schrer.lycheeupload.upload.PhotoBatch;
+import at.schrer.lycheeupload.upload.RetryPolicy;
+import at.schrer.lycheeupload.upload.SyncPlan;
+import at.schrer.lycheeupload.upload.TreeSync;
+import at.schrer.lycheeupload.upload.UploadJournal;
+import at.schrer.lycheeupload.upload.UploadReport;
+import at.schrer.lycheeupload.upload.UploadResult;
+import at.schrer.lycheeupload.upload.UploadSchedule;
 import at.schrer.lycheeupload.util.LoginConfig;
 import org.apache.http.auth.AuthenticationException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,9 +54,21 @@ public class LycheeCLIUpload {
     private static final Logger LOGGER = Logger.getLogger(LycheeCLIUpload.class.getName());
 
     private static final String DEFAULT_CONFIG_PATH = System.getProperty("user.home")+"/.config/lycheeupload.conf";
+    private static final String SESSION_FILE_NAME = "lycheeupload.session";
+    private static final long METRICS_PERIOD_MILLIS = 60000;
+    private static final long CONFIG_RELOAD_MILLIS = 10000;
+    private static final long BATCH_ALBUM_CACHE_MILLIS = 300000;
+    private static final int BATCH_ALBUM_CACHE_SIZE = 10000;
+    private static final int LOAD_TEST_CONCURRENCY = 16;
+    private static final long PHOTO_BATCH_DELAY_MILLIS = 10000;
+    private static final String COMMONS_LOGGING_PROPERTY = "org.apache.commons.logging.Log";
 
     public static void main(String[] args){
 
+        // HttpClient logs through commons-logging, which otherwise searches the classpath for Log4j first
+        if (System.getProperty(COMMONS_LOGGING_PROPERTY) == null) {
+            System.setProperty(COMMONS_LOGGING_PROPERTY, "org.apache.commons.logging.impl.Jdk14Logger");
+        }
 
         try {
 
@@ -53,6 +104,21 @@ public class LycheeCLIUpload {
             case "-l":
                 getStandardAlbums(args);
                 return;
+            case "-w":
+                watchFolder(args);
+                return;
+            case "-s":
+                syncTree(args);
+                return;
+            case "-b":
+                runBatch(args);
+                return;
+            case "-L":
+                runLoadTest(args);
+                return;
+            case "-e":
+                exportAlbums(args);
+                return;
             case "-c":
                 writeToStdErrAndExit("Album creation not yet supported on commandline.\n");
                 return;
@@ -69,9 +135,10 @@ public class LycheeCLIUpload {
      */
     private static void getStandardAlbums(String[] args) throws IOException, AuthenticationException {
 
-        LycheeUploaderHttp lup = login(args);
-
-        List<Album> albums = lup.getStandardAlbums();
+        List<Album> albums;
+        try (LycheeUploaderHttp lup = login(args)) {
+            albums = lup.getStandardAlbums();
+        }
 
         StringBuilder albumOutput = new StringBuilder();
 
@@ -85,21 +152,774 @@ public class LycheeCLIUpload {
     }
 
     /**
-     * Upload an image to the server.
+     * Upload an image, or all images in a directory or matching a glob pattern, to the server.
      * @param args the arguments passed to the program.
      * @throws IOException if an error occurs during communication with the server.
      * @throws AuthenticationException if an error occurs during authentication.
      */
     private static void uploadImage(String[] args) throws IOException, AuthenticationException {
 
-        LycheeUploaderHttp lup = login(args);
-
         String filePath = args[1];
-        String albumId = args[2];
+        String album = args[2];
+
+        String targets = getOptionValue(args, "--targets");
+        if (targets != null) {
+            uploadToTargets(args, targets.split(","), BulkUploader.collectImages(filePath), album);
+            return;
+        }
+
+        // With "--dedup", "--tags" or "--star" single files go through the bulk uploader too, which knows the checksums
+        // and passes the new photo on
+        if (Files.isRegularFile(Paths.get(filePath)) && !hasFlag(args, "--dedup") && !hasPhotoChanges(args)) {
+            String imageId;
+            try (LycheeUploaderHttp lup = login(args)) {
+                MetricsReporter metrics = createMetricsReporter(lup, args);
+                try (ImageTransformer transformer = createImageTransformer(args)) {
+                    String albumId = resolveAlbumId(lup, album);
+                    Path image = Paths.get(filePath);
+                    byte[] transformed = (transformer == null) ? null : transformer.transform(image);
+
+                    if (transformed == null) {
+                        imageId = lup.uploadImage(albumId, filePath);
+                    } else {
+                        imageId = lup.uploadImage(albumId, image.getFileName().toString(), transformed);
+                    }
+                } finally {
+                    closeMetricsReporter(metrics);
+                }
+            }
+
+            writeToStdOut("Image ID: " + imageId);
+            return;
+        }
+
+        List<Path> images = BulkUploader.collectImages(filePath);
+        if (images.isEmpty()) {
+            writeToStdErrAndExit("No images found for " + filePath);
+        }
+
+        String journalPath = getOptionValue(args, "--journal");
+
+        UploadReport report;
+        try (LycheeUploaderHttp lup = login(args, getUploadThreads(args))) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try (PhotoBatch photoBatch = createPhotoBatch(lup, args);
+                 UploadJournal journal = (journalPath == null) ? null : UploadJournal.open(Paths.get(journalPath));
+                 ImageTransformer transformer = createImageTransformer(args)) {
+                BulkUploader bulkUploader = createBulkUploader(lup, args);
+                bulkUploader.setJournal(journal);
+                bulkUploader.setImageTransformer(transformer);
+                changeUploadedPhotos(bulkUploader, photoBatch, args);
+                report = bulkUploader.uploadAll(resolveAlbumId(lup, album), images);
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+
+        writeReport(report);
+
+        if (!report.isSuccessful()) {
+            writeToStdErrAndExit(report.getFailureCount() + " of " + report.getResults().size() + " uploads failed.");
+        }
+    }
+
+    /**
+     * Upload images to the servers of several profiles of the config file, reading each image once.
+     * A server that can't be logged in to is reported and skipped, the others are uploaded to anyway.
+     * @param args the arguments passed to the program.
+     * @param profiles the names of the profiles.
+     * @param images the images to upload.
+     * @param album the ID or title of the album, looked up on each server.
+     * @throws IOException if the config file can't be read.
+     */
+    private static void uploadToTargets(String[] args, String[] profiles, List<Path> images, String album) throws IOException {
+        if (images.isEmpty()) {
+            writeToStdErrAndExit("No images found for " + args[1]);
+        }
+
+        LoginConfig config = createConfigFromFile(args);
+        applyRateLimit(config.getRateLimit());
+
+        Map<String, LycheeUploaderHttp> targets = new LinkedHashMap<>();
+        Map<String, String> albumIds = new LinkedHashMap<>();
+        boolean failed = false;
+
+        try {
+            for (String name : profiles) {
+                LoginConfig profile = config.getProfile(name);
+                if (profile == null || !profile.isComplete()) {
+                    System.err.println(name + ": No complete profile \"" + name + "\" in the config file.");
+                    failed = true;
+                    continue;
+                }
+
+                try {
+                    if (getOptionValue(args, "--transport") != null) {
+                        profile.setTransport(getOptionValue(args, "--transport"));
+                    }
+                    ConnectionSettings connectionSettings = createConnectionSettings(profile);
+                    allowConnections(connectionSettings, getUploadThreads(args));
+                    LycheeUploaderHttp lup = hasFlag(args, "--no-session")
+                            ? new LycheeUploaderHttp(profile.getServerAddress(), profile.getUsername(), profile.getPassword(),
+                                    connectionSettings)
+                            : new LycheeUploaderHttp(profile.getServerAddress(), profile.getUsername(), profile.getPassword(),
+                                    connectionSettings, getSessionFile(args).resolveSibling(name + "." + SESSION_FILE_NAME));
+                    targets.put(name, lup);
+                    albumIds.put(name, resolveAlbumId(lup, album));
+                } catch (IOException | AuthenticationException e) {
+                    System.err.println(name + ": " + e.getMessage());
+                    failed = true;
+                }
+            }
+
+            if (targets.isEmpty()) {
+                writeToStdErrAndExit("No server to upload to.");
+            }
+
+            FanOutUploader fanOut = new FanOutUploader(targets);
+            fanOut.setThreads(createBulkUploader(targets.values().iterator().next(), args).getThreads());
+
+            Map<String, UploadReport> reports;
+            try (ImageTransformer transformer = createImageTransformer(args)) {
+                fanOut.setImageTransformer(transformer);
+                reports = fanOut.uploadAll(albumIds, images);
+            }
+
+            failed |= writeTargetReports(images, reports);
+        } finally {
+            for (LycheeUploaderHttp lup : targets.values()) {
+                lup.close();
+            }
+        }
+
+        if (failed) {
+            writeToStdErrAndExit("Not all uploads succeeded.");
+        }
+    }
+
+    /**
+     * Write one line per file with the result on every server, and a summary per server.
+     * @param images the uploaded images.
+     * @param reports the reports by profile name.
+     * @return true if any upload failed.
+     */
+    private static boolean writeTargetReports(List<Path> images, Map<String, UploadReport> reports) {
+        StringBuilder output = new StringBuilder();
+        boolean failed = false;
+
+        for (int i = 0; i < images.size(); i++) {
+            output.append(images.get(i)).append(":");
+            for (Map.Entry<String, UploadReport> report : reports.entrySet()) {
+                UploadResult result = report.getValue().getResults().get(i);
+                output.append(" ").append(report.getKey()).append("=");
+                if (result.isSuccessful()) {
+                    output.append(result.getImageId());
+                } else {
+                    output.append("Error ").append(result.getError().getMessage());
+                }
+            }
+            output.append("\n");
+        }
+
+        for (Map.Entry<String, UploadReport> report : reports.entrySet()) {
+            UploadReport targetReport = report.getValue();
+            output.append(report.getKey()).append(": Uploaded ").append(targetReport.getSuccessCount()).append(" of ")
+                    .append(targetReport.getResults().size()).append(" images in ").append(targetReport.getDurationMillis()).append(" ms\n");
+            failed |= !targetReport.isSuccessful();
+        }
+
+        writeToStdOut(output.toString());
+        return failed;
+    }
+
+    /**
+     * Watch a directory and upload new images until the program is stopped.
+     * @param args the arguments passed to the program.
+     * @throws IOException if an error occurs during communication with the server or the directory can't be watched.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static void watchFolder(String[] args) throws IOException, AuthenticationException {
+
+        Path directory = Paths.get(args[1]);
+        String album = args[2];
+
+        if (!Files.isDirectory(directory)) {
+            writeToStdErrAndExit("Not a directory: " + directory);
+        }
+
+        String journalPath = getOptionValue(args, "--journal");
+
+        try (LycheeUploaderHttp lup = login(args, getUploadThreads(args))) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try (PhotoBatch photoBatch = createPhotoBatch(lup, args);
+                 UploadJournal journal = (journalPath == null) ? null : UploadJournal.open(Paths.get(journalPath));
+                 ImageTransformer transformer = createImageTransformer(args)) {
+                BulkUploader bulkUploader = createBulkUploader(lup, args);
+                bulkUploader.setJournal(journal);
+                bulkUploader.setImageTransformer(transformer);
+                changeUploadedPhotos(bulkUploader, photoBatch, args);
+
+                FolderWatcher watcher = new FolderWatcher(bulkUploader, resolveAlbumId(lup, album), directory);
+                watcher.setReportListener(LycheeCLIUpload::writeReport);
+
+                Thread watchingThread = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        watcher.close();
+                        // let the current batch finish, so uploader and journal get closed properly
+                        watchingThread.join();
+                    } catch (IOException | InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Unable to stop watching cleanly.", e);
+                    }
+                }));
+
+                ScheduledExecutorService configReload = startRateLimitReload(args);
+                try {
+                    writeToStdOut("Watching " + directory + " for new images.\n");
+                    watcher.run();
+                } finally {
+                    configReload.shutdownNow();
+                }
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+    }
+
+    /**
+     * Mirror a directory tree into albums, one album per directory titled with its relative path.
+     * With "--dry-run" only the plan is printed.
+     * @param args the arguments passed to the program.
+     * @throws IOException if an error occurs during communication with the server or the directory can't be read.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static void syncTree(String[] args) throws IOException, AuthenticationException {
+
+        Path directory = Paths.get(args[1]);
+
+        if (!Files.isDirectory(directory)) {
+            writeToStdErrAndExit("Not a directory: " + directory);
+        }
+
+        String journalPath = getOptionValue(args, "--journal");
+
+        UploadReport report;
+        try (LycheeUploaderHttp lup = login(args, getUploadThreads(args))) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try (PhotoBatch photoBatch = createPhotoBatch(lup, args);
+                 UploadJournal journal = (journalPath == null) ? null : UploadJournal.open(Paths.get(journalPath));
+                 ImageTransformer transformer = createImageTransformer(args)) {
+                BulkUploader bulkUploader = createBulkUploader(lup, args);
+                bulkUploader.setJournal(journal);
+                bulkUploader.setImageTransformer(transformer);
+                changeUploadedPhotos(bulkUploader, photoBatch, args);
+
+                TreeSync sync = new TreeSync(lup, bulkUploader);
+                sync.setNewAlbumAccess(getNewAlbumAccess(args));
+
+                SyncPlan plan = sync.plan(directory);
+                writePlan(plan);
+
+                if (hasFlag(args, "--dry-run") || plan.isEmpty()) {
+                    return;
+                }
+                report = sync.run(plan);
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+
+        writeReport(report);
+
+        if (!report.isSuccessful()) {
+            writeToStdErrAndExit(report.getFailureCount() + " of " + report.getResults().size() + " uploads failed.");
+        }
+    }
+
+    /**
+     * Run the commands of a file, or of stdin if the file is "-", over one session and write one JSON result per command.
+     * @param args the arguments passed to the program.
+     * @throws IOException if an error occurs during communication with the server or the commands can't be read.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static void runBatch(String[] args) throws IOException, AuthenticationException {
+
+        String commands = args[1];
+
+        int failures;
+        try (BufferedReader in = "-".equals(commands)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(commands));
+             LycheeUploaderHttp lup = login(args, getUploadThreads(args))) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try (ImageTransformer transformer = createImageTransformer(args)) {
+                // Titles are looked up for every upload, creating and changing albums updates the cache
+                lup.setAlbumCache(new AlbumCache(BATCH_ALBUM_CACHE_MILLIS, BATCH_ALBUM_CACHE_SIZE));
+
+                BatchRunner runner = new BatchRunner(lup, createBulkUploader(lup, args).getThreads());
+                runner.setImageTransformer(transformer);
+                failures = runner.run(in, System.out);
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+
+        if (failures > 0) {
+            writeToStdErrAndExit(failures + " commands failed.");
+        }
+    }
+
+    /**
+     * Run a load test with the mix of operations given as "upload=8,list=1,create=1" and write its results.
+     * Options: "--rate" operations per second (without it a closed loop), "--duration" in seconds (default 60),
+     * "--image-size" the sizes of the uploaded images in KiB (default 1024), "--threads" the requests in flight (default 16)
+     * and "--album" the album to upload into (default a new one).
+     * @param args the arguments passed to the program.
+     * @throws IOException if an error occurs during communication with the server.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static void runLoadTest(String[] args) throws IOException, AuthenticationException {
+
+        Map<LoadTest.Operation, Integer> mix = new EnumMap<>(LoadTest.Operation.class);
+        for (String part : args[1].split(",")) {
+            String[] nameWeight = part.split("=", 2);
+            LoadTest.Operation operation;
+            try {
+                operation = LoadTest.Operation.valueOf(nameWeight[0].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                writeToStdErrAndExit("Unknown load test operation: " + nameWeight[0]);
+                return;
+            }
+            mix.put(operation, (nameWeight.length > 1) ? Integer.parseInt(nameWeight[1].trim()) : 1);
+        }
+
+        String threads = getOptionValue(args, "--threads");
+        int concurrency = (threads == null) ? LOAD_TEST_CONCURRENCY : Integer.parseInt(threads);
+
+        LoadReport report;
+        try (LycheeUploaderHttp lup = login(args, concurrency)) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try {
+                LoadTest loadTest = new LoadTest(lup);
+                loadTest.setMix(mix);
+                loadTest.setConcurrency(concurrency);
+
+                String rate = getOptionValue(args, "--rate");
+                if (rate != null) {
+                    loadTest.setRate(Double.parseDouble(rate));
+                }
+                String duration = getOptionValue(args, "--duration");
+                if (duration != null) {
+                    loadTest.setDurationMillis((long) (Double.parseDouble(duration) * 1000));
+                }
+                String sizes = getOptionValue(args, "--image-size");
+                if (sizes != null) {
+                    String[] kibs = sizes.split(",");
+                    int[] imageSizes = new int[kibs.length];
+                    for (int i = 0; i < kibs.length; i++) {
+                        imageSizes[i] = Integer.parseInt(kibs[i].trim()) * 1024;
+                    }
+                    loadTest.setImageSizes(imageSizes);
+                }
+                String album = getOptionValue(args, "--album");
+                if (album != null) {
+                    loadTest.setAlbumId(resolveAlbumId(lup, album));
+                }
+
+                report = loadTest.run();
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+
+        writeToStdOut(report.toText());
+    }
+
+    /**
+     * Download the photos of an album, or of all albums if none is given, into a directory and write a manifest per album.
+     * Photos whose files are already in the directory from an earlier export are skipped.
+     * @param args the arguments passed to the program.
+     * @throws IOException if an error occurs during communication with the server or the directory can't be written.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static void exportAlbums(String[] args) throws IOException, AuthenticationException {
+
+        Path directory = Paths.get(args[1]);
+        String album = (args.length > 2 && !args[2].startsWith("--")) ? args[2] : null;
+
+        String threads = getOptionValue(args, "--threads");
+
+        ExportReport report;
+        try (LycheeUploaderHttp lup = login(args, (threads == null) ? 0 : Integer.parseInt(threads))) {
+            MetricsReporter metrics = createMetricsReporter(lup, args);
+            try {
+                AlbumExporter exporter = new AlbumExporter(lup);
+                if (threads != null) {
+                    exporter.setThreads(Integer.parseInt(threads));
+                }
+
+                report = (album == null)
+                        ? exporter.exportAll(directory)
+                        : exporter.export(resolveAlbumId(lup, album), directory);
+            } finally {
+                closeMetricsReporter(metrics);
+            }
+        }
+
+        writeExportReport(report);
+
+        if (!report.isSuccessful()) {
+            writeToStdErrAndExit(report.getFailureCount() + " of " + report.getResults().size() + " downloads failed.");
+        }
+    }
+
+    /**
+     * Read the access settings for new albums from the config file ("albumpassword", "albumpublic", "albumvisible", "albumdownloadable").
+     * @param args the arguments passed to the program.
+     * @return the settings, or null if none are configured.
+     * @throws IOException if the config file can't be read.
+     */
+    private static AlbumAccess getNewAlbumAccess(String[] args) throws IOException {
+        LoginConfig config = createConfigFromFile(args);
+        if (!config.hasNewAlbumAccess()) {
+            return null;
+        }
+
+        AlbumAccess access = new AlbumAccess();
+        access.setPassword(config.getNewAlbumPassword());
+        access.setPublic(Boolean.TRUE.equals(config.getNewAlbumPublic()));
+        access.setVisible(Boolean.TRUE.equals(config.getNewAlbumVisible()));
+        access.setDownloadable(Boolean.TRUE.equals(config.getNewAlbumDownloadable()));
+        return access;
+    }
+
+    /**
+     * Write the albums to create and the number of files to upload per album.
+     * @param plan the plan of a sync.
+     */
+    private static void writePlan(SyncPlan plan) {
+        StringBuilder output = new StringBuilder();
+
+        for (SyncPlan.PlannedAlbum album : plan.getAlbums()) {
+            output.append(album.isNew() ? "create " : "update ").append(album.getTitle())
+                    .append(": ").append(album.getFilesToUpload().size()).append(" to upload, ")
+                    .append(album.getUpToDateCount()).append(" up to date\n");
+        }
+        output.append(plan.getAlbumsToCreateCount()).append(" albums to create, ")
+                .append(plan.getFilesToUploadCount()).append(" files to upload\n");
+
+        writeToStdOut(output.toString());
+    }
+
+    /**
+     * Set the rate of the global bandwidth limiter, with bursts of one second but at least 64 KiB.
+     * @param rateLimit the rate in KiB/s, null or 0 for no limit.
+     */
+    private static void applyRateLimit(Long rateLimit) {
+        long bytesPerSecond = (rateLimit == null) ? 0 : rateLimit * 1024;
+        BandwidthLimiter limiter = BandwidthLimiter.global();
+
+        limiter.setBurstBytes(Math.max(bytesPerSecond, 64 * 1024));
+        limiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Check the config file for a changed "ratelimit" regularly, so the rate of a long running watch can be adjusted.
+     * A rate given with option "--rate-limit" is kept.
+     * @param args the arguments passed to the program.
+     * @return the executor running the checks.
+     */
+    private static ScheduledExecutorService startRateLimitReload(String[] args) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "config-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (getOptionValue(args, "--rate-limit") != null) {
+            return executor;
+        }
+
+        String configPath = getOptionValue(args, "--config");
+        Path config = Paths.get(configPath == null ? DEFAULT_CONFIG_PATH : configPath);
+        long[] lastModified = {lastModified(config)};
+
+        executor.scheduleWithFixedDelay(() -> {
+            long modified = lastModified(config);
+            if (modified == lastModified[0]) {
+                return;
+            }
+            lastModified[0] = modified;
+            try {
+                Long rateLimit = Files.exists(config) ? new LoginConfig(config.toString()).getRateLimit() : null;
+                applyRateLimit(rateLimit);
+                LOGGER.log(Level.INFO, "Upload rate limit changed to {0} KiB/s.", rateLimit);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to reload config, keeping the rate limit.", e);
+            }
+        }, CONFIG_RELOAD_MILLIS, CONFIG_RELOAD_MILLIS, TimeUnit.MILLISECONDS);
+
+        return executor;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Create a bulk uploader with the number of threads given by option "--threads".
+     * With "--adaptive" the threads are only an upper bound for a limit that adapts to the server's latency and errors,
+     * the default is then the number of connections per server, and uploads the server turned away are retried.
+     * With "--dedup" files whose checksum is already in the target album on the server are skipped.
+     * With "--order largest" or "--order smallest" the uploads are started by file size.
+     * @param lup the uploader to use.
+     * @param args the arguments passed to the program.
+     * @return the bulk uploader.
+     */
+    private static BulkUploader createBulkUploader(LycheeUploaderHttp lup, String[] args) {
+        BulkUploader bulkUploader = new BulkUploader(lup);
+        bulkUploader.setThreads(getUploadThreads(args));
+        boolean adaptive = hasFlag(args, "--adaptive");
+
+        if (adaptive) {
+            lup.setUploadLimiter(new AdaptiveLimiter(Math.min(2, bulkUploader.getThreads()), 1, bulkUploader.getThreads()));
+            lup.setRetryPolicy(new RetryPolicy());
+        }
+
+        if (hasFlag(args, "--dedup")) {
+            bulkUploader.setChecksumIndex(new ChecksumIndex(lup));
+        }
+
+        String order = getOptionValue(args, "--order");
+        if ("largest".equals(order)) {
+            bulkUploader.setOrder(UploadSchedule.Order.LARGEST_FIRST);
+        } else if ("smallest".equals(order)) {
+            bulkUploader.setOrder(UploadSchedule.Order.SMALLEST_FIRST);
+        } else if (order != null && !"given".equals(order)) {
+            writeToStdErrAndExit("Unknown upload order: " + order);
+        }
+        return bulkUploader;
+    }
+
+    /**
+     * The number of concurrent uploads given by option "--threads". With "--adaptive" it defaults to the connections per route.
+     * @param args the arguments passed to the program.
+     * @return the number of upload threads, which the connection pool has to allow.
+     */
+    private static int getUploadThreads(String[] args) {
+        String threads = getOptionValue(args, "--threads");
+        if (threads != null) {
+            return Integer.parseInt(threads);
+        }
+        return hasFlag(args, "--adaptive") ? new ConnectionSettings().getMaxConnectionsPerRoute() : BulkUploader.DEFAULT_THREADS;
+    }
+
+    /**
+     * Create a batch for the changes of uploaded photos if option "--tags" or "--star" is given. Changes are sent together
+     * at the latest ten seconds after a photo was uploaded, and when the batch is closed.
+     * @param lup the uploader to send the changes with.
+     * @param args the arguments passed to the program.
+     * @return the batch, or null if the photos are not changed.
+     */
+    private static PhotoBatch createPhotoBatch(LycheeUploaderHttp lup, String[] args) {
+        if (!hasPhotoChanges(args)) {
+            return null;
+        }
+        PhotoBatch photoBatch = new PhotoBatch(lup);
+        photoBatch.setMaxDelayMillis(PHOTO_BATCH_DELAY_MILLIS);
+        return photoBatch;
+    }
+
+    private static boolean hasPhotoChanges(String[] args) {
+        return getOptionValue(args, "--tags") != null || hasFlag(args, "--star");
+    }
+
+    /**
+     * Tag or star every photo the bulk uploader uploads, as given by options "--tags" and "--star".
+     * @param bulkUploader the bulk uploader.
+     * @param photoBatch the batch to collect the changes in, or null if the photos are not changed.
+     * @param args the arguments passed to the program.
+     */
+    private static void changeUploadedPhotos(BulkUploader bulkUploader, PhotoBatch photoBatch, String[] args) {
+        if (photoBatch == null) {
+            return;
+        }
+        String tags = getOptionValue(args, "--tags");
+        boolean star = hasFlag(args, "--star");
+
+        bulkUploader.setUploadListener((file, photoId) -> {
+            if (tags != null) {
+                photoBatch.setTags(photoId, tags);
+            }
+            if (star) {
+                // New photos are not starred
+                photoBatch.toggleStar(photoId);
+            }
+        });
+    }
+
+    /**
+     * Collect request statistics if option "--metrics" is given, with the format "text" or "json" as value.
+     * They are written to stderr every minute and when the reporter is closed.
+     * @param lup the uploader to collect statistics for.
+     * @param args the arguments passed to the program.
+     * @return the started reporter, or null if no statistics are wanted.
+     */
+    private static MetricsReporter createMetricsReporter(LycheeUploaderHttp lup, String[] args) {
+        String format = getOptionValue(args, "--metrics");
+        if (format == null) {
+            return null;
+        }
+        if (!"text".equals(format) && !"json".equals(format)) {
+            writeToStdErrAndExit("Unknown metrics format: " + format);
+        }
+
+        RequestMetrics requestMetrics = new RequestMetrics();
+        lup.setRequestListener(requestMetrics);
+
+        MetricsReporter reporter = new MetricsReporter(requestMetrics, "json".equals(format), System.err::print);
+        reporter.start(METRICS_PERIOD_MILLIS);
+        return reporter;
+    }
+
+    /**
+     * Stop the metrics reporter, if there is one, which writes the last report.
+     * @param metrics the reporter or null.
+     */
+    private static void closeMetricsReporter(MetricsReporter metrics) {
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Create an image transformer from the options "--max-size", "--quality" and "--strip-exif".
+     * @param args the arguments passed to the program.
+     * @return the transformer, or null if none of the options is given and images are uploaded unchanged.
+     */
+    private static ImageTransformer createImageTransformer(String[] args) {
+        String maxSize = getOptionValue(args, "--max-size");
+        String quality = getOptionValue(args, "--quality");
+        boolean stripExif = hasFlag(args, "--strip-exif");
+
+        if (maxSize == null && quality == null && !stripExif) {
+            return null;
+        }
+
+        ImageTransformOptions options = new ImageTransformOptions();
+        if (maxSize != null) {
+            options.setMaxDimension(Integer.parseInt(maxSize));
+        }
+        if (quality != null) {
+            options.setJpegQuality(Integer.parseInt(quality) / 100f);
+        }
+        options.setPreserveExif(!stripExif);
+
+        return new ImageTransformer(options);
+    }
+
+    /**
+     * Finds the ID of an album given by ID or title. Numbers are taken as IDs, everything else is looked up by title first
+     * and used as ID if there is no album with that title, which allows smart albums like "f" (starred).
+     * @param lup the uploader to look up the album with.
+     * @param album the ID or title of the album.
+     * @return the album ID.
+     * @throws IOException if an error occurs during communication with the server.
+     */
+    private static String resolveAlbumId(LycheeUploaderHttp lup, String album) throws IOException {
+        if (album.matches("-?\\d+")) {
+            return album;
+        }
+
+        Album found = lup.findAlbumByName(album);
+        return (found == null) ? album : found.getAlbumId();
+    }
 
-        String imageId = lup.uploadImage(albumId, filePath);
+    /**
+     * Write one line per uploaded file, with either the image ID or the error message.
+     * @param report the result of a bulk upload.
+     */
+    private static void writeReport(UploadReport report) {
+        StringBuilder output = new StringBuilder();
+
+        for (UploadResult result : report.getResults()) {
+            output.append(result.getFile()).append(": ");
+            if (result.isSkipped()) {
+                output.append("Skipped, already uploaded as image ID ").append(result.getImageId());
+            } else if (result.isSuccessful()) {
+                output.append("Image ID ").append(result.getImageId());
+            } else {
+                output.append("Error ").append(result.getError().getMessage());
+            }
+            output.append("\n");
+        }
 
-        writeToStdOut("Image ID: " + imageId);
+        output.append("Uploaded ").append(report.getSuccessCount() - report.getSkippedCount()).append(" of ").append(report.getResults().size())
+                .append(" images (").append(report.getSkippedCount()).append(" skipped) in ").append(report.getDurationMillis()).append(" ms\n");
+
+        UploadSchedule schedule = report.getSchedule();
+        if (schedule != null && schedule.getOrder() != UploadSchedule.Order.GIVEN) {
+            writeSchedule(output, schedule, report.getDurationMillis());
+        }
+
+        writeToStdOut(output.toString());
+    }
+
+    /**
+     * Write one line per photo that was not exported and a summary of the export.
+     * @param report the result of an export.
+     */
+    private static void writeExportReport(ExportReport report) {
+        StringBuilder output = new StringBuilder();
+
+        for (ExportResult result : report.getResults()) {
+            if (!result.isSuccessful()) {
+                output.append(result.getFile()).append(": Error ").append(result.getError().getMessage()).append("\n");
+            }
+        }
+
+        output.append("Downloaded ").append(report.getDownloadedCount()).append(" of ").append(report.getResults().size())
+                .append(" photos (").append(report.getSkippedCount()).append(" skipped, ")
+                .append(report.getBytesDownloaded() / 1024).append(" KiB) in ").append(report.getDurationMillis()).append(" ms\n");
+
+        writeToStdOut(output.toString());
+    }
+
+    /**
+     * Compares the time a batch took with the time it was expected to take in its order, in the given order and at best.
+     * @param output the output to append a line to.
+     * @param schedule the schedule of the batch.
+     * @param actualMillis the time the batch took.
+     */
+    private static void writeSchedule(StringBuilder output, UploadSchedule schedule, long actualMillis) {
+        String order = (schedule.getOrder() == UploadSchedule.Order.LARGEST_FIRST) ? "largest first" : "smallest first";
+        output.append("Expected ").append(schedule.getExpectedMillis()).append(" ms ").append(order)
+                .append(" (").append(schedule.getExpectedMillis(UploadSchedule.Order.GIVEN)).append(" ms in given order, at best ")
+                .append(schedule.getLowerBoundMillis()).append(" ms), took ").append(actualMillis).append(" ms with ")
+                .append(schedule.getWorkers()).append(" uploads at a time of ")
+                .append(Math.round(schedule.getRequestMillis())).append(" ms");
+        if (schedule.getBytesPerMilli() > 0) {
+            output.append(" + ").append(Math.round(schedule.getBytesPerMilli() * 1000 / 1024)).append(" KiB/s");
+        }
+        output.append("\n");
+    }
+
+    /**
+     * Finds the value following an option like "--threads".
+     * @param args the arguments passed to the program.
+     * @param option the name of the option.
+     * @return the value of the option, or null if it isn't given.
+     */
+    private static String getOptionValue(String[] args, String option) {
+        for (int i=1; i<args.length-1; i++){
+            if (option.equals(args[i])) {
+                return args[i+1];
+            }
+        }
+        return null;
     }
 
     /**
@@ -130,6 +950,14 @@ public class LycheeCLIUpload {
                 loginConfig.setServerAddress(args[i+1]);
             }
 
+            else if ("--rate-limit".equals(args[i])){
+                loginConfig.setRateLimit(Long.parseLong(args[i+1]));
+            }
+
+            else if ("--transport".equals(args[i])){
+                loginConfig.setTransport(args[i+1]);
+            }
+
         }
 
         // Throw Exception if login data is not complete
@@ -172,11 +1000,89 @@ public class LycheeCLIUpload {
      * @throws AuthenticationException if an error occurs during authentication.
      */
     private static LycheeUploaderHttp login(String[] args) throws IOException, AuthenticationException {
+        return login(args, 0);
+    }
+
+    /**
+     * Authenticate with the server, with a connection pool for at least the given number of concurrent requests.
+     * @param args the arguments passed to the program.
+     * @param connections the number of concurrent requests, 0 for the default pool.
+     * @return the authenticated uploader.
+     * @throws IOException if an error occurs during communication with the server.
+     * @throws AuthenticationException if an error occurs during authentication.
+     */
+    private static LycheeUploaderHttp login(String[] args, int connections) throws IOException, AuthenticationException {
 
         LoginConfig loginData= getLoginData(args);
+        applyRateLimit(loginData.getRateLimit());
+        ConnectionSettings connectionSettings = createConnectionSettings(loginData);
+        allowConnections(connectionSettings, connections);
+
+        if (hasFlag(args, "--no-session")) {
+            return new LycheeUploaderHttp(loginData.getServerAddress(),loginData.getUsername(),loginData.getPassword(),
+                    connectionSettings);
+        }
+
+        return new LycheeUploaderHttp(loginData.getServerAddress(),loginData.getUsername(),loginData.getPassword(),
+                connectionSettings, getSessionFile(args));
+    }
+
+    /**
+     * Creates the connection settings for a server, with the transport chosen in the config or with "--transport".
+     * @param loginData the login information of the server.
+     * @return the connection settings.
+     * @throws IOException if the transport is unknown.
+     */
+    private static ConnectionSettings createConnectionSettings(LoginConfig loginData) throws IOException {
+        ConnectionSettings connectionSettings = new ConnectionSettings();
+        if (loginData.getTransport() != null) {
+            try {
+                connectionSettings.setTransport(loginData.getTransport().trim());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("transport has to be \"" + ConnectionSettings.TRANSPORT_APACHE + "\" or \""
+                        + ConnectionSettings.TRANSPORT_HTTP2 + "\": " + loginData.getTransport(), e);
+            }
+        }
+        return connectionSettings;
+    }
 
-        return new LycheeUploaderHttp(loginData.getServerAddress(),loginData.getUsername(),loginData.getPassword());
+    /**
+     * Enlarges the connection pool, so the given number of concurrent requests don't wait for a connection and time out.
+     * @param connectionSettings the settings to change.
+     * @param connections the number of concurrent requests.
+     */
+    private static void allowConnections(ConnectionSettings connectionSettings, int connections) {
+        if (connectionSettings.getMaxConnectionsPerRoute() < connections) {
+            connectionSettings.setMaxConnectionsPerRoute(connections);
+            connectionSettings.setMaxConnectionsTotal(Math.max(connectionSettings.getMaxConnectionsTotal(), connections));
+        }
+    }
 
+    /**
+     * The session is stored next to the config file, "USERHOME/.config/lycheeupload.session" by default.
+     * @param args the arguments passed to the program.
+     * @return the path of the session file.
+     */
+    private static Path getSessionFile(String[] args) {
+        String configPath = getOptionValue(args, "--config");
+        Path config = Paths.get(configPath == null ? DEFAULT_CONFIG_PATH : configPath).toAbsolutePath();
+
+        return config.resolveSibling(SESSION_FILE_NAME);
+    }
+
+    /**
+     * Checks if an option without value, like "--no-session", is given.
+     * @param args the arguments passed to the program.
+     * @param flag the name of the option.
+     * @return true if the option is given.
+     */
+    private static boolean hasFlag(String[] args, String flag) {
+        for (int i=1; i<args.length; i++){
+            if (flag.equals(args[i])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -200,12 +1106,52 @@ public class LycheeCLIUpload {
      * Write usage instructions and exit with exit code 1.
      */
     private static void writeUsage(){
-        String usage = "Usage: java -jar lycheeUpload.jar [-u <filepath> <albumId> | -l ]\n" +
+        String usage = "Usage: java -jar lycheeUpload.jar [-u <filepath|directory|glob> <albumId|albumTitle> | -w <directory> <albumId|albumTitle> | -s <directory> | -b <file|-> | -L <mix> | -e <directory> [albumId|albumTitle] | -l ]\n" +
                 " [--user <username>] [--password <password>] [--server <serverAddress>] [--config <path>]\n" +
+                " [--threads <count>] [--journal <path>] [--no-session] [--max-size <pixels>] [--quality <1-100>] [--strip-exif]\n" +
+                " [--metrics <text|json>] [--adaptive] [--rate-limit <KiB/s>] [--dry-run] [--targets <profile,...>] [--dedup]\n" +
+                " [--transport <apache|http2>] [--order <given|largest|smallest>] [--rate <ops/s>] [--duration <s>] [--image-size <KiB,...>]\n" +
+                " [--album <albumId|albumTitle>] [--tags <tag,...>] [--star]\n" +
                 "\n"+
                 "Options:\n"+
-                "   -u <filepath> <albumId> to upload an image\n"+
-                "   -l to list albums available on the server";
+                "   -u <filepath> <albumId|albumTitle> to upload an image\n"+
+                "   -u <directory|glob> <albumId|albumTitle> to upload all images in a directory or matching a quoted glob pattern\n"+
+                "   -w <directory> <albumId|albumTitle> to keep running and upload images added to a directory\n"+
+                "   -s <directory> to mirror a directory tree into one album per directory, titled with its relative path\n"+
+                "   -b <file|-> to run commands from a file or stdin, one JSON object per line, and write one JSON result per line:\n"+
+                "      {\"op\":\"upload\",\"file\":..,\"album\":..} {\"op\":\"list\"} {\"op\":\"create\",\"title\":..}\n"+
+                "      {\"op\":\"access\",\"album\":..,\"public\":..,\"visible\":..,\"downloadable\":..,\"password\":..}\n"+
+                "   -L <mix> to load test the server with a mix of operations like upload=8,list=1,create=1, see --rate, --duration,\n"+
+                "      --image-size, --threads (requests in flight, default 16) and --album (default a new one)\n"+
+                "   -e <directory> [albumId|albumTitle] to download the photos of an album, or of all albums into one directory each,\n"+
+                "      with a manifest.json per album; photos already downloaded by an earlier export are skipped\n"+
+                "   -l to list albums available on the server\n"+
+                "   --threads <count> number of concurrent uploads for directories, globs and watching, or downloads for -e (default 4)\n"+
+                "   --journal <path> record uploaded files in a journal and skip them when run again; a file whose upload was interrupted\n"+
+                "              is looked up in the album by checksum and reported instead of being uploaded twice\n"+
+                "   --no-session log in without reusing or storing the session next to the config file\n"+
+                "   --max-size <pixels> scale JPEG and PNG images down to at most this width and height before uploading\n"+
+                "   --quality <1-100> JPEG quality of scaled images (default 85)\n"+
+                "   --strip-exif remove EXIF, XMP and IPTC data from JPEG images, turning them according to their orientation\n"+
+                "   --metrics <text|json> write request latencies, bytes and errors per API function to stderr every minute and at the end\n"+
+                "   --adaptive adapt the number of concurrent uploads to the server's latency and errors, up to --threads (default 10),\n"+
+                "              and retry uploads the server turned away (429, 503) or that could not connect\n"+
+                "   --rate-limit <KiB/s> limit the upload bandwidth, overrides \"ratelimit\" of the config file\n"+
+                "   --targets <profile,...> upload with -u to the servers of these profiles of the config file at once, reading each image once\n"+
+                "   --dedup skip files whose checksum is already in the target album on the server, for -u, -w and -s\n"+
+                "   --transport <apache|http2> how requests are sent, overrides \"transport\" of the config file: apache (default)\n"+
+                "              or http2 to send all requests over one HTTP/2 connection where the server supports it\n"+
+                "   --order <given|largest|smallest> start the uploads of -u, -w and -s in the given order (default), largest\n"+
+                "              first to finish the batch early, or smallest first to get most files done early; with largest and\n"+
+                "              smallest the time the batch took is compared with the time expected for its file sizes\n"+
+                "   --rate <ops/s> start load test operations at this rate, measuring latency from when they were due;\n"+
+                "              without it every thread sends its next request when the last one is answered\n"+
+                "   --duration <s> how long the load test starts operations (default 60)\n"+
+                "   --image-size <KiB,...> sizes of the images the load test generates and uploads (default 1024)\n"+
+                "   --album <albumId|albumTitle> album the load test uploads into (default a new one)\n"+
+                "   --tags <tag,...> tag the photos uploaded by -u, -w and -s, sent together in few requests\n"+
+                "   --star star the photos uploaded by -u, -w and -s\n"+
+                "   --dry-run only print which albums -s would create and how many files it would upload";
 
         writeToStdOut(usage);
         System.exit(1);
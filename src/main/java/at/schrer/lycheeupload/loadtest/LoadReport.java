@@ -0,0 +1,231 @@
+package at.schrer.lycheeupload.loadtest;
+
+import at.schrer.lycheeupload.metrics.LatencyHistogram;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of a {@link LoadTest}: throughput and latency percentiles per operation. Latencies are in microseconds and,
+ * in an open loop test, measured from the time an operation was scheduled at, the service time from when it was sent.
+ */
+public class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final double targetRate;
+    private final int concurrency;
+    private final Map<LoadTest.Operation, OperationResults> operations = new EnumMap<>(LoadTest.Operation.class);
+    private final AtomicInteger maxBacklog = new AtomicInteger();
+    private volatile long elapsedNanos;
+
+    LoadReport(double targetRate, int concurrency) {
+        this.targetRate = targetRate;
+        this.concurrency = concurrency;
+        for (LoadTest.Operation operation : LoadTest.Operation.values()) {
+            operations.put(operation, new OperationResults());
+        }
+    }
+
+    void record(LoadTest.Operation operation, long latencyNanos, long serviceNanos, long bytes, Exception error) {
+        OperationResults results = operations.get(operation);
+        results.latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        results.serviceTime.record(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+        if (error == null) {
+            results.bytesSent.add(bytes);
+        } else {
+            results.errors.increment();
+            results.lastError = error;
+        }
+    }
+
+    void recordBacklog(int backlog) {
+        maxBacklog.accumulateAndGet(backlog, Math::max);
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the operations per second the test was to start, 0 for a closed loop.
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return the time from the first operation until the last one finished, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return the most operations that were due but waited for a free worker at the same time, in an open loop test.
+     */
+    public int getMaxBacklog() {
+        return maxBacklog.get();
+    }
+
+    /**
+     * @param operation the operation.
+     * @return the results of the operation, empty if it was not run.
+     */
+    public OperationResults getResults(LoadTest.Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return the number of operations that failed, over all operations.
+     */
+    public long getErrorCount() {
+        long errors = 0;
+        for (OperationResults results : operations.values()) {
+            errors += results.getErrorCount();
+        }
+        return errors;
+    }
+
+    /**
+     * @return one line per operation that was run with its throughput and latency percentiles in milliseconds.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(targetRate > 0
+                        ? String.format("Open loop at %.1f/s, at most %d in flight, backlog up to %d", targetRate, concurrency, getMaxBacklog())
+                        : String.format("Closed loop with %d in flight", concurrency))
+                .append(String.format(", %.1f s%n", elapsedNanos / 1e9));
+
+        for (Map.Entry<LoadTest.Operation, OperationResults> entry : operations.entrySet()) {
+            OperationResults results = entry.getValue();
+            if (results.getCount() == 0) {
+                continue;
+            }
+            LatencyHistogram latency = results.getLatency();
+
+            text.append(entry.getKey().getFunction())
+                    .append(": count=").append(results.getCount())
+                    .append(String.format(" rate=%.1f/s", getThroughput(results)));
+            for (double percentile : PERCENTILES) {
+                text.append(" p").append(formatPercentile(percentile)).append("=")
+                        .append(String.format("%.1fms", latency.getValueAtPercentile(percentile) / 1000.0));
+            }
+            text.append(String.format(" max=%.1fms", latency.getMax() / 1000.0))
+                    .append(String.format(" service p50=%.1fms p99=%.1fms", results.getServiceTime().getValueAtPercentile(50) / 1000.0,
+                            results.getServiceTime().getValueAtPercentile(99) / 1000.0));
+            if (results.getBytesSent() > 0) {
+                text.append(String.format(" %.1f MiB/s", results.getBytesSent() / (elapsedNanos / 1e9) / (1024 * 1024)));
+            }
+            text.append(" errors=").append(results.getErrorCount());
+            if (results.getLastError() != null) {
+                text.append(" (last: ").append(results.getLastError().getMessage()).append(")");
+            }
+            text.append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the results as JSON, latencies in microseconds.
+     */
+    public JSONObject toJSON() {
+        JSONObject operationsJSON = new JSONObject();
+        for (Map.Entry<LoadTest.Operation, OperationResults> entry : operations.entrySet()) {
+            OperationResults results = entry.getValue();
+            if (results.getCount() == 0) {
+                continue;
+            }
+
+            JSONObject operationJSON = new JSONObject();
+            operationJSON.put("count", results.getCount());
+            operationJSON.put("errors", results.getErrorCount());
+            operationJSON.put("perSecond", getThroughput(results));
+            operationJSON.put("bytesSent", results.getBytesSent());
+            operationJSON.put("latencyMicros", histogramToJSON(results.getLatency()));
+            operationJSON.put("serviceMicros", histogramToJSON(results.getServiceTime()));
+            operationsJSON.put(entry.getKey().getFunction(), operationJSON);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("targetRate", targetRate);
+        json.put("concurrency", concurrency);
+        json.put("elapsedMillis", getElapsedMillis());
+        json.put("maxBacklog", getMaxBacklog());
+        json.put("operations", operationsJSON);
+        return json;
+    }
+
+    private double getThroughput(OperationResults results) {
+        return (elapsedNanos == 0) ? 0 : (results.getCount() - results.getErrorCount()) / (elapsedNanos / 1e9);
+    }
+
+    private static JSONObject histogramToJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("mean", Math.round(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            json.put("p" + formatPercentile(percentile), histogram.getValueAtPercentile(percentile));
+        }
+        json.put("max", histogram.getMax());
+        return json;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return (percentile == Math.rint(percentile)) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /**
+     * The results of one operation.
+     */
+    public static class OperationResults {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private volatile Exception lastError;
+
+        /**
+         * @return the number of operations that finished, including failed ones.
+         */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        /**
+         * @return the image bytes of the successful uploads.
+         */
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        /**
+         * @return the time from when the operations were due until they finished, in microseconds.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time from when the operations were sent until they finished, in microseconds.
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        public Exception getLastError() {
+            return lastError;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package at.schrer.lycheeupload.loadtest;
+
+import at.schrer.lycheeupload.upload.LycheeUploaderHttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Drives a mix of uploads, album listings and album creations against a Lychee server to find out how much load it sustains.
+ * <p>
+ * With a rate the test is open loop: the operations are started on a fixed schedule, independent of how fast the server
+ * answers, and their latency is measured from the time they were scheduled at. A slow server therefore shows in the
+ * latency of all operations that had to wait for it, instead of quietly lowering the rate, which a closed loop of
+ * back to back requests does (coordinated omission). Without a rate every worker sends its next request as soon as the
+ * last one is answered, which measures the throughput at a fixed concurrency.
+ * <p>
+ * Uploads send noise JPEGs of the configured sizes, generated in memory, each with a unique comment so the server stores
+ * every one of them.
+ */
+public class LoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadTest.class.getName());
+
+    /**
+     * The operations of a load test, each one request.
+     */
+    public enum Operation {
+        UPLOAD("Photo::add"),
+        LIST("Albums::get"),
+        CREATE("Album::add");
+
+        private final String function;
+
+        Operation(String function) {
+            this.function = function;
+        }
+
+        /**
+         * @return the Lychee API function the operation calls.
+         */
+        public String getFunction() {
+            return function;
+        }
+    }
+
+    private final LycheeUploaderHttp uploader;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private double rate = 0;
+    private int concurrency = 16;
+    private long durationMillis = 60_000;
+    private int[] imageSizes = {1024 * 1024};
+    private String albumId;
+    private String titlePrefix = "Load test";
+    private long seed = 1;
+
+    /**
+     * @param uploader the logged in uploader to send the requests with. Its connection pool should allow the concurrency.
+     */
+    public LoadTest(LycheeUploaderHttp uploader) {
+        this.uploader = uploader;
+        mix.put(Operation.UPLOAD, 1);
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return new EnumMap<>(mix);
+    }
+
+    /**
+     * Sets how often each operation is picked, e.g. 8 uploads to 1 listing to 1 creation.
+     * @param mix the relative weight of each operation, operations that are missing are not run.
+     */
+    public void setMix(Map<Operation, Integer> mix) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights can't be negative.");
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one operation needs a weight.");
+        }
+        this.mix.clear();
+        this.mix.putAll(mix);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate the operations per second to start on a fixed schedule, or 0 to run a closed loop at the concurrency.
+     */
+    public void setRate(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("The rate can't be negative.");
+        }
+        this.rate = rate;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @param concurrency the number of requests at most in flight. With a rate, operations that are due while all are
+     *                    busy wait and their waiting time is part of their latency.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one request has to be in flight.");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @param durationMillis how long new operations are started. Operations in flight at the end are waited for.
+     */
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public int[] getImageSizes() {
+        return imageSizes.clone();
+    }
+
+    /**
+     * @param imageSizes the sizes of the uploaded images in bytes, each upload picks one of them at random.
+     */
+    public void setImageSizes(int[] imageSizes) {
+        if (imageSizes.length == 0) {
+            throw new IllegalArgumentException("At least one image size is needed.");
+        }
+        this.imageSizes = imageSizes.clone();
+    }
+
+    public String getAlbumId() {
+        return albumId;
+    }
+
+    /**
+     * @param albumId the album to upload into, or null to create one when the test starts.
+     */
+    public void setAlbumId(String albumId) {
+        this.albumId = albumId;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    /**
+     * @param titlePrefix the start of the titles of the albums the test creates, so they can be found and deleted later.
+     */
+    public void setTitlePrefix(String titlePrefix) {
+        this.titlePrefix = titlePrefix;
+    }
+
+    /**
+     * @param seed the seed for the images and the order of the operations, so runs can be repeated.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the images and runs the test.
+     * @return the throughput and latencies per operation.
+     * @throws IOException if the images can't be generated or the album for the uploads can't be created.
+     */
+    public LoadReport run() throws IOException {
+        Random random = new Random(seed);
+        List<SyntheticImage> images = new ArrayList<>();
+        if (weight(Operation.UPLOAD) > 0) {
+            for (int size : imageSizes) {
+                images.add(new SyntheticImage(size, random));
+            }
+        }
+
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        String uploadAlbum = albumId;
+        if (uploadAlbum == null && !images.isEmpty()) {
+            uploadAlbum = createAlbum(titlePrefix + " " + runId);
+        }
+
+        Operation[] picks = picks();
+        Context context = new Context(uploadAlbum, images, titlePrefix + " " + runId + " ");
+
+        LoadReport report = new LoadReport(rate, concurrency);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "lychee-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long start = System.nanoTime();
+            if (rate > 0) {
+                runOpenLoop(workers, picks, random, context, report, start);
+            } else {
+                runClosedLoop(workers, picks, context, report, start);
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(durationMillis + 60_000, TimeUnit.MILLISECONDS)) {
+                LOGGER.warning("Operations still running after the load test, they are not counted.");
+            }
+            report.finish(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.finish(0);
+        } finally {
+            workers.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Starts the operations at fixed intervals. The start time of each operation is taken from the schedule, not from the
+     * clock when a worker picks it up, so waiting for a worker counts into the latency.
+     */
+    private void runOpenLoop(ExecutorService workers, Operation[] picks, Random random, Context context, LoadReport report, long start) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        AtomicInteger backlog = new AtomicInteger();
+
+        for (long scheduled = start; scheduled < end; scheduled += intervalNanos) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Operation operation = picks[random.nextInt(picks.length)];
+            long intended = scheduled;
+            report.recordBacklog(backlog.incrementAndGet());
+            workers.execute(() -> {
+                backlog.decrementAndGet();
+                execute(operation, intended, context, report);
+            });
+        }
+    }
+
+    /**
+     * Every worker starts its next operation as soon as the last one finished.
+     */
+    private void runClosedLoop(ExecutorService workers, Operation[] picks, Context context, LoadReport report, long start) {
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                Random random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end && !Thread.currentThread().isInterrupted()) {
+                    execute(picks[random.nextInt(picks.length)], System.nanoTime(), context, report);
+                }
+            });
+        }
+    }
+
+    private void execute(Operation operation, long intended, Context context, LoadReport report) {
+        long started = System.nanoTime();
+        long bytes = 0;
+        Exception error = null;
+        try {
+            switch (operation) {
+                case UPLOAD:
+                    SyntheticImage image = context.images.get(ThreadLocalRandom.current().nextInt(context.images.size()));
+                    long number = context.uploads.incrementAndGet();
+                    uploader.uploadImage(context.albumId, "load-" + number + ".jpg", image.copy(number));
+                    bytes = image.size();
+                    break;
+                case LIST:
+                    uploader.getAllAlbums();
+                    break;
+                case CREATE:
+                    createAlbum(context.albumTitle + context.albums.incrementAndGet());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+        long finished = System.nanoTime();
+        report.record(operation, finished - intended, finished - started, bytes, error);
+    }
+
+    /**
+     * Creates an album and checks the answer, so an error message of the server is not counted as a created album.
+     */
+    private String createAlbum(String title) throws IOException {
+        String albumId = uploader.createAlbum(title);
+        if (!LycheeUploaderHttp.isInteger(albumId)) {
+            throw new IOException("Could not create album " + title + ". Server Response: " + albumId);
+        }
+        return albumId;
+    }
+
+    /**
+     * @return the operations, each as often as its weight, to pick from at random.
+     */
+    private Operation[] picks() {
+        List<Operation> picks = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            for (int i = 0; i < weight(operation); i++) {
+                picks.add(operation);
+            }
+        }
+        return picks.toArray(new Operation[0]);
+    }
+
+    private int weight(Operation operation) {
+        return mix.getOrDefault(operation, 0);
+    }
+
+    /**
+     * What the operations of one run share.
+     */
+    private static class Context {
+        private final String albumId;
+        private final List<SyntheticImage> images;
+        private final String albumTitle;
+        private final AtomicLong uploads = new AtomicLong();
+        private final AtomicLong albums = new AtomicLong();
+
+        private Context(String albumId, List<SyntheticImage> images, String albumTitle) {
+            this.albumId = albumId;
+            this.images = images;
+            this.albumTitle = albumTitle;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package at.schrer.lycheeupload.loadtest;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A JPEG of a given file size, generated in memory from noise, so the server has as many pixels to scale as in a photo
+ * of that size. Every copy from {@link #copy(long)} carries a different number in a comment segment, so the server
+ * doesn't recognize the uploads as duplicates.
+ */
+class SyntheticImage {
+
+    private static final int MARKER_COM = 0xFE;
+    private static final int MAX_SEGMENT_DATA = 0xFFFF - 2;
+    private static final int COUNTER_OFFSET = 6;
+    private static final float QUALITY = 0.9f;
+
+    private final byte[] template;
+
+    /**
+     * Encodes an image of noise that comes close to the size and fills the rest up with comments.
+     * @param size the size of the JPEG file in bytes.
+     * @param random the source of the noise.
+     * @throws IOException if the image can't be encoded.
+     */
+    SyntheticImage(int size, Random random) throws IOException {
+        // Noise hardly compresses, a first small image tells how many bytes a pixel takes
+        byte[] sample = encode(noise(64, 64, random));
+        double bytesPerPixel = (double) sample.length / (64 * 64);
+        int side = (int) Math.max(8, Math.sqrt(size * 0.9 / bytesPerPixel));
+
+        byte[] jpeg = encode(noise(side, side, random));
+        while (jpeg.length + 12 > size && side > 8) {
+            side = side * 9 / 10;
+            jpeg = encode(noise(side, side, random));
+        }
+        this.template = pad(jpeg, size);
+    }
+
+    /**
+     * @return the size of the JPEG in bytes.
+     */
+    int size() {
+        return template.length;
+    }
+
+    /**
+     * @param number the number that makes this copy unique.
+     * @return a copy of the JPEG with the number in its first comment.
+     */
+    byte[] copy(long number) {
+        byte[] copy = template.clone();
+        for (int i = 0; i < 8; i++) {
+            copy[COUNTER_OFFSET + i] = (byte) (number >>> (56 - 8 * i));
+        }
+        return copy;
+    }
+
+    private static BufferedImage noise(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(QUALITY);
+
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserts comment segments right after the start of image marker: first one for the number of the copy, then as many as
+     * needed to reach the size.
+     */
+    private static byte[] pad(byte[] jpeg, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(size, jpeg.length + 12));
+        out.write(jpeg, 0, 2);
+        writeComment(out, 8);
+
+        int missing = size - jpeg.length - 12;
+        while (missing >= 4) {
+            int data = Math.min(missing - 4, MAX_SEGMENT_DATA);
+            writeComment(out, data);
+            missing -= data + 4;
+        }
+
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static void writeComment(ByteArrayOutputStream out, int dataLength) {
+        out.write(0xFF);
+        out.write(MARKER_COM);
+        out.write((dataLength + 2) >>> 8);
+        out.write((dataLength + 2) & 0xFF);
+        for (int i = 0; i < dataLength; i++) {
+            out.write(' ');
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package at.schrer.lycheeupload.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, e.g. latencies in microseconds, with a fixed memory footprint and lock free recording.
+ * <p>
+ * Like an HDR histogram the buckets grow with the value: values below 128 are counted exactly, above that every power of two
+ * is split into 64 buckets, so a percentile is off by at most 1/64 (about 1.6%) of its value. Values above
+ * {@link #MAX_TRACKABLE_VALUE} are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The largest value that is tracked with full precision, about 2^41, which is 25 days in microseconds.
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_TRACKABLE_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts a value.
+     * @param value the value, negative values are counted as 0.
+     */
+    public void record(long value) {
+        long clamped = Math.max(0, Math.min(value, MAX_TRACKABLE_VALUE));
+
+        counts.incrementAndGet(indexOf(clamped));
+        totalCount.incrementAndGet();
+        sum.addAndGet(clamped);
+
+        long currentMax = max.get();
+        while (clamped > currentMax && !max.compareAndSet(currentMax, clamped)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Finds the value below or at which the given share of all recorded values lies.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the highest value of the bucket the percentile falls into, but at most the largest recorded value. 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Drops all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return EXACT_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int exponent = (index - EXACT_LIMIT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+        long subBucket = (index - EXACT_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
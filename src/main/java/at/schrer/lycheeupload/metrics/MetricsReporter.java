@@ -0,0 +1,73 @@
+package at.schrer.lycheeupload.metrics;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the statistics of a {@link RequestMetrics} periodically, as text or as one JSON object per report.
+ * A last report is written when the reporter is closed.
+ */
+public class MetricsReporter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MetricsReporter.class.getName());
+
+    private final RequestMetrics metrics;
+    private final boolean json;
+    private final Consumer<String> output;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param metrics the statistics to report.
+     * @param json true to write JSON, false for text.
+     * @param output receives every report.
+     */
+    public MetricsReporter(RequestMetrics metrics, boolean json, Consumer<String> output) {
+        this.metrics = metrics;
+        this.json = json;
+        this.output = output;
+    }
+
+    /**
+     * Starts writing reports in the background.
+     * @param periodMillis the time between two reports.
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Reporter is already started.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a report now.
+     */
+    public void report() {
+        try {
+            output.accept(json ? metrics.toJSON().toString() + "\n" : metrics.toText());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to write metrics report.", e);
+        }
+    }
+
+    /**
+     * Stops the periodic reports and writes a last one.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        report();
+    }
+}
@@ -0,0 +1,77 @@
+package at.schrer.lycheeupload.metrics;
+
+import java.io.IOException;
+
+/**
+ * The details of one finished HTTP request to a Lychee server, passed to a {@link RequestListener}.
+ */
+public class RequestEvent {
+
+    private final String function;
+    private final int statusCode;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long responseNanos;
+    private final long totalNanos;
+    private final IOException error;
+
+    /**
+     * @param function the Lychee API function of the request.
+     * @param statusCode the HTTP status code, 0 if no response was received.
+     * @param bytesSent the size of the request body, -1 if unknown.
+     * @param bytesReceived the size of the response body, -1 if unknown.
+     * @param responseNanos the time until the status line and headers of the response arrived.
+     * @param totalNanos the time until the response body was read completely.
+     * @param error the error that ended the request, or null.
+     */
+    public RequestEvent(String function, int statusCode, long bytesSent, long bytesReceived, long responseNanos, long totalNanos, IOException error) {
+        this.function = function;
+        this.statusCode = statusCode;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.responseNanos = responseNanos;
+        this.totalNanos = totalNanos;
+        this.error = error;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return the time until the response headers arrived, which covers connecting, TLS, sending the body and the processing on the server.
+     */
+    public long getResponseNanos() {
+        return responseNanos;
+    }
+
+    /**
+     * @return the time until the response body was read, {@link #getResponseNanos()} plus the download of the body.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return true if a response with a 2xx status code was received.
+     */
+    public boolean isSuccessful() {
+        return error == null && statusCode >= 200 && statusCode <= 299;
+    }
+}
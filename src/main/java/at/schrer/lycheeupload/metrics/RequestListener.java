@@ -0,0 +1,30 @@
+package at.schrer.lycheeupload.metrics;
+
+/**
+ * Gets notified about every HTTP request a {@link at.schrer.lycheeupload.upload.LycheeUploaderHttp} sends to the server,
+ * see {@link at.schrer.lycheeupload.upload.LycheeUploaderHttp#setRequestListener(RequestListener)}.
+ * <p>
+ * The methods are called on the thread that sends the request, so they have to be thread safe, fast and must not throw.
+ * A request that is repeated after the session was renewed is reported twice.
+ */
+public interface RequestListener {
+
+    /**
+     * A listener that ignores all requests.
+     */
+    RequestListener NONE = new RequestListener() {};
+
+    /**
+     * Called before a request is sent.
+     * @param function the Lychee API function of the request, e.g. "Photo::add".
+     */
+    default void requestStarted(String function) {
+    }
+
+    /**
+     * Called after the response of a request was read, or the request failed.
+     * @param event the details of the request.
+     */
+    default void requestFinished(RequestEvent event) {
+    }
+}
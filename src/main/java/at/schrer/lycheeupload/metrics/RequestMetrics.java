@@ -0,0 +1,237 @@
+package at.schrer.lycheeupload.metrics;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RequestListener} that keeps statistics per Lychee API function: latency histograms in microseconds, bytes sent and
+ * received, errors by HTTP status code and the number of requests currently in flight. Recording is lock free, so one instance
+ * can be shared by all threads and uploaders.
+ */
+public class RequestMetrics implements RequestListener {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<String, FunctionMetrics> functions = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Override
+    public void requestStarted(String function) {
+        inFlight.incrementAndGet();
+        getFunctionMetrics(function).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void requestFinished(RequestEvent event) {
+        inFlight.decrementAndGet();
+
+        FunctionMetrics metrics = getFunctionMetrics(event.getFunction());
+        metrics.inFlight.decrementAndGet();
+        metrics.requests.increment();
+        metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(event.getTotalNanos()));
+
+        if (event.getError() != null) {
+            metrics.failures.increment();
+            return;
+        }
+
+        metrics.responseTime.record(TimeUnit.NANOSECONDS.toMicros(event.getResponseNanos()));
+        if (event.getBytesSent() > 0) {
+            metrics.bytesSent.add(event.getBytesSent());
+        }
+        if (event.getBytesReceived() > 0) {
+            metrics.bytesReceived.add(event.getBytesReceived());
+        }
+        if (!event.isSuccessful()) {
+            metrics.errorsByStatus.computeIfAbsent(event.getStatusCode(), status -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @return the number of requests that were started and have not finished yet, over all functions.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @param function a Lychee API function, e.g. "Photo::add".
+     * @return the statistics of the function, empty ones if it was never called.
+     */
+    public FunctionMetrics getFunctionMetrics(String function) {
+        return functions.computeIfAbsent(function, f -> new FunctionMetrics());
+    }
+
+    /**
+     * @return the statistics of all functions that were called, sorted by function name.
+     */
+    public Map<String, FunctionMetrics> getAllFunctionMetrics() {
+        return new TreeMap<>(functions);
+    }
+
+    /**
+     * Drops all statistics, e.g. after each periodic report. Requests in flight stay counted.
+     */
+    public void reset() {
+        for (FunctionMetrics metrics : functions.values()) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * @return one line per function with count, latency percentiles in milliseconds, bytes and errors.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("in flight: ").append(getInFlight()).append("\n");
+
+        for (Map.Entry<String, FunctionMetrics> entry : getAllFunctionMetrics().entrySet()) {
+            FunctionMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.getLatency();
+
+            text.append(entry.getKey())
+                    .append(": count=").append(metrics.getRequestCount())
+                    .append(" inFlight=").append(metrics.getInFlight());
+            for (double percentile : PERCENTILES) {
+                text.append(" p").append(formatPercentile(percentile)).append("=")
+                        .append(String.format("%.1fms", latency.getValueAtPercentile(percentile) / 1000.0));
+            }
+            text.append(String.format(" max=%.1fms", latency.getMax() / 1000.0))
+                    .append(" sent=").append(metrics.getBytesSent())
+                    .append(" received=").append(metrics.getBytesReceived())
+                    .append(" failures=").append(metrics.getFailureCount());
+            for (Map.Entry<Integer, Long> error : metrics.getErrorsByStatus().entrySet()) {
+                text.append(" status").append(error.getKey()).append("=").append(error.getValue());
+            }
+            text.append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the statistics as JSON, latencies in microseconds.
+     */
+    public JSONObject toJSON() {
+        JSONObject functionsJSON = new JSONObject();
+
+        for (Map.Entry<String, FunctionMetrics> entry : getAllFunctionMetrics().entrySet()) {
+            FunctionMetrics metrics = entry.getValue();
+
+            JSONObject functionJSON = new JSONObject();
+            functionJSON.put("count", metrics.getRequestCount());
+            functionJSON.put("inFlight", metrics.getInFlight());
+            functionJSON.put("latencyMicros", histogramToJSON(metrics.getLatency()));
+            functionJSON.put("responseMicros", histogramToJSON(metrics.getResponseTime()));
+            functionJSON.put("bytesSent", metrics.getBytesSent());
+            functionJSON.put("bytesReceived", metrics.getBytesReceived());
+            functionJSON.put("failures", metrics.getFailureCount());
+
+            JSONObject errorsJSON = new JSONObject();
+            for (Map.Entry<Integer, Long> error : metrics.getErrorsByStatus().entrySet()) {
+                errorsJSON.put(error.getKey().toString(), error.getValue());
+            }
+            functionJSON.put("errorsByStatus", errorsJSON);
+
+            functionsJSON.put(entry.getKey(), functionJSON);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("timestamp", System.currentTimeMillis());
+        json.put("inFlight", getInFlight());
+        json.put("functions", functionsJSON);
+        return json;
+    }
+
+    private static JSONObject histogramToJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("mean", Math.round(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            json.put("p" + formatPercentile(percentile), histogram.getValueAtPercentile(percentile));
+        }
+        json.put("max", histogram.getMax());
+        return json;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return (percentile == Math.rint(percentile)) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /**
+     * The statistics of a single Lychee API function.
+     */
+    public static class FunctionMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final Map<Integer, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * @return the complete duration of the requests in microseconds, including failed ones.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time until the response headers arrived in microseconds, only for requests that got a response.
+         */
+        public LatencyHistogram getResponseTime() {
+            return responseTime;
+        }
+
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /**
+         * @return the number of requests that got no response, e.g. because the connection failed.
+         */
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * @return the number of responses with a status code other than 2xx, by status code.
+         */
+        public Map<Integer, Long> getErrorsByStatus() {
+            Map<Integer, Long> errors = new TreeMap<>();
+            for (Map.Entry<Integer, LongAdder> entry : errorsByStatus.entrySet()) {
+                errors.put(entry.getKey(), entry.getValue().sum());
+            }
+            return errors;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        private void reset() {
+            latency.reset();
+            responseTime.reset();
+            requests.reset();
+            failures.reset();
+            bytesSent.reset();
+            bytesReceived.reset();
+            errorsByStatus.clear();
+        }
+    }
+}
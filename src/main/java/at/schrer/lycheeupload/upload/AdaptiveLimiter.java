@@ -0,0 +1,143 @@
+package at.schrer.lycheeupload.upload;
+
+/**
+ * Limits the number of uploads in flight to what the server currently handles well, see
+ * {@link LycheeUploaderHttp#setUploadLimiter(AdaptiveLimiter)}.
+ * <p>
+ * The limit follows the additive increase, multiplicative decrease scheme of TCP congestion control: while the limit is
+ * used up and the latency stays near its long term average, each finished upload raises the limit by 1/limit, which adds
+ * about one upload per round. When the recent latency rises above {@link #getLatencyTolerance()} times the long term average,
+ * or the server answers with 5xx or times out, the limit is multiplied by {@link #getBackoffRatio()}. This happens at most
+ * once per round trip, as the uploads that were in flight together suffered from the same overload.
+ * <p>
+ * Latencies are smoothed, so a single large image does not count as overload.
+ */
+public class AdaptiveLimiter {
+
+    private static final double RECENT_WEIGHT = 0.2;
+    private static final double BASELINE_WEIGHT = 0.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double latencyTolerance = 2.0;
+    private double backoffRatio = 0.7;
+
+    private double limit;
+    private int inFlight = 0;
+    private double recentLatency = -1;
+    private double baselineLatency = -1;
+    private long lastDecrease = 0;
+
+    /**
+     * @param initialLimit the number of uploads allowed in flight at the start.
+     * @param minLimit the limit never drops below this, at least 1.
+     * @param maxLimit the limit never grows above this. Should not exceed the upload threads and the connections per route.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits have to satisfy 1 <= minLimit <= maxLimit.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @param latencyTolerance how many times the long term average the recent latency may be before the limit is lowered, above 1.
+     */
+    public synchronized void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("The latency tolerance has to be above 1.");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public synchronized double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @param backoffRatio the factor the limit is multiplied with on overload, between 0 and 1.
+     */
+    public synchronized void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("The backoff ratio has to be between 0 and 1.");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @return the current number of uploads allowed in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Waits until another upload may start. Every call has to be followed by a call to {@link #release(long, boolean)}.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Reports a finished upload and adapts the limit.
+     * @param latencyNanos how long the upload took.
+     * @param overloaded true if the server answered with 5xx or did not answer in time.
+     */
+    public synchronized void release(long latencyNanos, boolean overloaded) {
+        boolean limitUsed = inFlight >= (int) limit;
+        inFlight--;
+        long now = System.nanoTime();
+
+        if (overloaded) {
+            decrease(now);
+        } else {
+            if (baselineLatency < 0) {
+                recentLatency = latencyNanos;
+                baselineLatency = latencyNanos;
+            } else {
+                recentLatency += RECENT_WEIGHT * (latencyNanos - recentLatency);
+                baselineLatency += BASELINE_WEIGHT * (latencyNanos - baselineLatency);
+            }
+
+            if (recentLatency > baselineLatency * latencyTolerance) {
+                decrease(now);
+            } else if (limitUsed) {
+                // Only grow if the limit was actually reached, an idle limit says nothing about the server
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        notifyAll();
+    }
+
+    private void decrease(long now) {
+        if (lastDecrease != 0 && recentLatency > 0 && now - lastDecrease < recentLatency) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastDecrease = now;
+    }
+}
@@ -5,11 +5,17 @@ public class Album {
     private String albumId;
     private String name;
     private boolean passwordProtected;
+    private boolean smart;
 
     public Album(String albumId, String name, boolean passwordProtected) {
+        this(albumId, name, passwordProtected, false);
+    }
+
+    public Album(String albumId, String name, boolean passwordProtected, boolean smart) {
         this.albumId = albumId;
         this.name = name;
         this.passwordProtected = passwordProtected;
+        this.smart = smart;
     }
 
     public String getAlbumId() {
@@ -24,6 +30,13 @@ public class Album {
         return passwordProtected;
     }
 
+    /**
+     * @return true for the albums Lychee generates itself, like "unsorted" or "starred".
+     */
+    public boolean isSmart() {
+        return smart;
+    }
+
     @Override
     public String toString() {
         return "Album{" +
@@ -0,0 +1,59 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.IOException;
+
+/**
+ * The access settings of an album, as set with {@link LycheeUploaderHttp#setAlbumAccess(String, String, boolean, boolean, boolean)}.
+ */
+public class AlbumAccess {
+
+    private String password = null;
+    private boolean downloadable = false;
+    private boolean visible = false;
+    private boolean publicAlbum = false;
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @param password the password of the album, null or empty for none.
+     */
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public boolean isDownloadable() {
+        return downloadable;
+    }
+
+    public void setDownloadable(boolean downloadable) {
+        this.downloadable = downloadable;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public boolean isPublic() {
+        return publicAlbum;
+    }
+
+    public void setPublic(boolean publicAlbum) {
+        this.publicAlbum = publicAlbum;
+    }
+
+    /**
+     * Applies the settings to an album.
+     * @param uploader the uploader to send the request with.
+     * @param albumId the ID of the album.
+     * @throws IOException if a server error occurs.
+     */
+    public void applyTo(LycheeUploaderHttp uploader, String albumId) throws IOException {
+        uploader.setAlbumAccess(albumId, password, downloadable, visible, publicAlbum);
+    }
+}
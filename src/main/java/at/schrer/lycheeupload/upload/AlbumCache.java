@@ -0,0 +1,183 @@
+package at.schrer.lycheeupload.upload;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caches the album list of a Lychee server for {@link LycheeUploaderHttp}, see {@link LycheeUploaderHttp#setAlbumCache(AlbumCache)}.
+ * The whole list is loaded at once and expires after a fixed time. If the server has more albums than the cache may hold,
+ * the least recently used ones are dropped and the cache is marked as incomplete, so lookups that miss go to the server again.
+ * <p>
+ * Albums are indexed by ID and by title. If several albums share a title, the first one in the server's list is found by title.
+ * The albums are kept in the order of the server's list, how recently they were used only decides which ones are dropped.
+ * Every album remembers its position in the list, so the title index is kept up to date without scanning all albums.
+ */
+public class AlbumCache {
+
+    private final long ttlMillis;
+    private final int maxAlbums;
+
+    private final Map<String, Album> albumsById = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Boolean> recentlyUsed = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> positions = new HashMap<>();
+    private final Map<String, TreeMap<Long, Album>> albumsByName = new HashMap<>();
+    private long nextPosition = 0;
+    private long loadedAt = 0;
+    private boolean loaded = false;
+    private boolean complete = true;
+
+    /**
+     * @param ttlMillis how long a loaded album list is used before it is fetched again.
+     * @param maxAlbums the maximum number of albums kept in memory.
+     */
+    public AlbumCache(long ttlMillis, int maxAlbums) {
+        if (maxAlbums < 1) {
+            throw new IllegalArgumentException("The cache has to hold at least one album.");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxAlbums = maxAlbums;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public int getMaxAlbums() {
+        return maxAlbums;
+    }
+
+    /**
+     * @return true if an album list was loaded and has not expired yet.
+     */
+    public synchronized boolean isFresh() {
+        return loaded && System.currentTimeMillis() - loadedAt < ttlMillis;
+    }
+
+    /**
+     * @return true if the cache is fresh and holds every album of the server.
+     */
+    public synchronized boolean isFreshAndComplete() {
+        return isFresh() && complete;
+    }
+
+    /**
+     * Replaces the cached albums with a list that was just loaded from the server. If it has more albums than the cache may
+     * hold, the first ones are kept.
+     * @param albums all albums of the server.
+     */
+    public synchronized void replaceAll(Collection<Album> albums) {
+        clear();
+        complete = true;
+
+        for (Album album : albums) {
+            if (albumsById.size() >= maxAlbums) {
+                complete = false;
+                break;
+            }
+            albumsById.put(album.getAlbumId(), album);
+            recentlyUsed.put(album.getAlbumId(), Boolean.TRUE);
+            long position = nextPosition++;
+            positions.put(album.getAlbumId(), position);
+            indexName(album, position);
+        }
+
+        loaded = true;
+        loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds or updates a single album, e.g. after it has been created or changed. A new album is added at the end of the list,
+     * like the server lists it, a changed one keeps its place.
+     * @param album the current state of the album.
+     */
+    public synchronized void put(Album album) {
+        Album previous = albumsById.put(album.getAlbumId(), album);
+        recentlyUsed.put(album.getAlbumId(), Boolean.TRUE);
+        Long position = positions.get(album.getAlbumId());
+        if (previous == null) {
+            position = nextPosition++;
+            positions.put(album.getAlbumId(), position);
+        } else {
+            unindexName(previous, position);
+        }
+        indexName(album, position);
+
+        while (recentlyUsed.size() > maxAlbums) {
+            String eldest = recentlyUsed.keySet().iterator().next();
+            recentlyUsed.remove(eldest);
+            unindexName(albumsById.remove(eldest), positions.remove(eldest));
+            complete = false;
+        }
+    }
+
+    /**
+     * @param albumId the ID of the album.
+     * @return the cached album, or null if it is not cached.
+     */
+    public synchronized Album getById(String albumId) {
+        Album album = albumsById.get(albumId);
+        if (album != null) {
+            recentlyUsed.get(albumId);
+        }
+        return album;
+    }
+
+    /**
+     * @param name the title of the album.
+     * @return the cached album, or null if it is not cached.
+     */
+    public synchronized Album getByName(String name) {
+        TreeMap<Long, Album> albums = albumsByName.get(name);
+        Album album = (albums == null) ? null : albums.firstEntry().getValue();
+        if (album != null) {
+            recentlyUsed.get(album.getAlbumId());
+        }
+        return album;
+    }
+
+    /**
+     * @return all cached albums in the order of the server's list.
+     */
+    public synchronized List<Album> getAll() {
+        return new ArrayList<>(albumsById.values());
+    }
+
+    /**
+     * Drops all cached albums, so the next access loads them from the server again.
+     */
+    public synchronized void invalidate() {
+        clear();
+        loaded = false;
+        complete = true;
+    }
+
+    private void clear() {
+        albumsById.clear();
+        albumsByName.clear();
+        recentlyUsed.clear();
+        positions.clear();
+        nextPosition = 0;
+    }
+
+    /**
+     * Adds an album to the albums with its title, which are ordered by their position in the server's list.
+     */
+    private void indexName(Album album, long position) {
+        albumsByName.computeIfAbsent(album.getName(), name -> new TreeMap<>()).put(position, album);
+    }
+
+    private void unindexName(Album album, long position) {
+        TreeMap<Long, Album> albums = albumsByName.get(album.getName());
+        if (albums != null) {
+            albums.remove(position);
+            if (albums.isEmpty()) {
+                albumsByName.remove(album.getName());
+            }
+        }
+    }
+}
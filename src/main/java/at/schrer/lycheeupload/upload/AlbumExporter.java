@@ -0,0 +1,377 @@
+package at.schrer.lycheeupload.upload;
+
+import at.schrer.lycheeupload.util.Checksums;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the original files of the photos of albums into local directories over a fixed number of worker threads that
+ * share the session of one {@link LycheeUploaderHttp}. Each file is streamed to disk as it is received and only moved to
+ * its name once it is complete, so an interrupted export never leaves a partial photo behind.
+ * <p>
+ * Every album directory gets a manifest ({@value #MANIFEST_FILE_NAME}) listing the exported photos with their titles, files,
+ * sizes and SHA-1 checksums. When an album is exported again, files that still match their photo are skipped: a file whose
+ * size and modification time are unchanged since the last export is trusted without reading it, otherwise it is compared
+ * with the checksum the server sends, or with the size if there is no checksum. So a nightly backup only downloads new
+ * and changed photos. Files of photos that were deleted on the server are kept, but left out of the manifest.
+ */
+public class AlbumExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(AlbumExporter.class.getName());
+
+    public static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final String PART_SUFFIX = ".part";
+    private static final String UNSORTED_ALBUM_ID = "0";
+    private static final String UNSORTED_TITLE = "Unsorted";
+
+    private final LycheeUploaderHttp uploader;
+    private int threads = 4;
+
+    public AlbumExporter(LycheeUploaderHttp uploader) {
+        this.uploader = uploader;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of concurrent downloads. Should not exceed the connections per route of the uploader's {@link ConnectionSettings}.
+     * @param threads the number of worker threads, at least 1.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Exports the photos of one album into a directory.
+     * @param albumId the ID of the album, "0" for the unsorted photos.
+     * @param directory the directory to write the photos and the manifest to, it is created if it doesn't exist.
+     * @return one result per photo. If the photos can't be listed, a single failed result.
+     * @throws IOException if the directory can't be created.
+     */
+    public ExportReport export(String albumId, Path directory) throws IOException {
+        Album album = UNSORTED_ALBUM_ID.equals(albumId) ? null : uploader.findAlbumById(albumId);
+        String title = (album == null) ? (UNSORTED_ALBUM_ID.equals(albumId) ? UNSORTED_TITLE : albumId) : album.getName();
+
+        List<AlbumTarget> targets = new ArrayList<>();
+        targets.add(new AlbumTarget(albumId, title, directory));
+        return exportAll(targets);
+    }
+
+    /**
+     * Exports the photos of all standard albums and the unsorted photos, each album into a subdirectory named after its
+     * title. Albums with the same title get their ID appended.
+     * @param directory the directory to create the album directories in.
+     * @return one result per photo, grouped by album.
+     * @throws IOException if the albums can't be listed or a directory can't be created.
+     */
+    public ExportReport exportAll(Path directory) throws IOException {
+        List<Album> albums = new ArrayList<>(uploader.getStandardAlbums());
+        albums.add(new Album(UNSORTED_ALBUM_ID, UNSORTED_TITLE, false, true));
+
+        List<AlbumTarget> targets = new ArrayList<>();
+        Set<String> directoryNames = new HashSet<>();
+        for (Album album : albums) {
+            String name = toFileName(album.getName(), album.getAlbumId());
+            if (!directoryNames.add(name.toLowerCase(Locale.ROOT))) {
+                name = name + " (" + album.getAlbumId() + ")";
+                directoryNames.add(name.toLowerCase(Locale.ROOT));
+            }
+            targets.add(new AlbumTarget(album.getAlbumId(), album.getName(), directory.resolve(name)));
+        }
+        return exportAll(targets);
+    }
+
+    /**
+     * Lists the albums one after the other and downloads their photos on one pool of workers, so small albums don't leave
+     * workers idle. The manifest of an album is written once all of its photos are done.
+     */
+    private ExportReport exportAll(List<AlbumTarget> targets) throws IOException {
+        long start = System.currentTimeMillis();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (AlbumTarget target : targets) {
+                Files.createDirectories(target.directory);
+                submitAll(target, workers);
+            }
+
+            List<ExportResult> results = new ArrayList<>();
+            for (AlbumTarget target : targets) {
+                List<ManifestEntry> entries = new ArrayList<>();
+                for (Future<ExportResult> future : target.futures) {
+                    ExportResult result = waitFor(future);
+                    results.add(result);
+                    if (result.isSuccessful() && result.getPhoto() != null) {
+                        entries.add(manifestEntry(result));
+                    }
+                }
+                if (target.listingFailure != null) {
+                    results.add(ExportResult.failure(target.albumId, null, target.directory, target.listingFailure));
+                    continue;
+                }
+
+                try {
+                    writeManifest(target, entries);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Unable to write manifest of album " + target.albumId + ".", e);
+                }
+            }
+
+            return new ExportReport(results, System.currentTimeMillis() - start);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void submitAll(AlbumTarget target, ExecutorService workers) {
+        List<Photo> photos;
+        try {
+            photos = uploader.getPhotos(target.albumId);
+        } catch (IOException | RuntimeException e) {
+            target.listingFailure = e;
+            return;
+        }
+
+        Map<String, ManifestEntry> previous = readManifest(target.directory);
+        Set<String> fileNames = new HashSet<>();
+        fileNames.add(MANIFEST_FILE_NAME);
+
+        for (Photo photo : photos) {
+            String fileName = toFileName(photo.getFileName(), photo.getPhotoId());
+            if (!fileNames.add(fileName.toLowerCase(Locale.ROOT))) {
+                fileName = toFileName(photo.getPhotoId() + "-" + fileName, photo.getPhotoId());
+                fileNames.add(fileName.toLowerCase(Locale.ROOT));
+            }
+            Path file = target.directory.resolve(fileName);
+            ManifestEntry entry = previous.get(photo.getPhotoId());
+
+            target.futures.add(workers.submit(() -> exportOne(target.albumId, photo, file, entry)));
+        }
+    }
+
+    /**
+     * Downloads one photo, unless its file is already current. Never throws, failures are part of the result.
+     */
+    private ExportResult exportOne(String albumId, Photo photo, Path file, ManifestEntry previous) {
+        Path partFile = file.resolveSibling(file.getFileName() + PART_SUFFIX);
+        try {
+            String currentChecksum = currentChecksum(photo, file, previous);
+            if (currentChecksum != null) {
+                return ExportResult.skipped(albumId, photo, file, currentChecksum);
+            }
+
+            String checksum = uploader.downloadPhoto(photo, partFile);
+            long size = Files.size(partFile);
+            if (photo.getChecksum() != null && !photo.getChecksum().equals(checksum)) {
+                throw new IOException("Checksum of the download is " + checksum + ", expected " + photo.getChecksum() + ".");
+            }
+            if (photo.getSize() >= 0 && photo.getSize() != size) {
+                throw new IOException("Downloaded " + size + " bytes, expected " + photo.getSize() + ".");
+            }
+
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return ExportResult.downloaded(albumId, photo, file, size, checksum);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            return ExportResult.failure(albumId, photo, file, e);
+        }
+    }
+
+    /**
+     * Checks if a file on disk is the original of a photo, reading it only if it changed since the last export.
+     * @return the checksum of the file, or null if the photo has to be downloaded.
+     */
+    private static String currentChecksum(Photo photo, Path file, ManifestEntry previous) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        if (photo.getSize() >= 0 && photo.getSize() != size) {
+            return null;
+        }
+        if (previous != null && previous.checksum != null && previous.size == size && previous.lastModified == lastModified
+                && previous.url.equals(photo.getUrl())
+                && (photo.getChecksum() == null || photo.getChecksum().equals(previous.checksum))) {
+            return previous.checksum;
+        }
+        if (photo.getChecksum() == null && photo.getSize() < 0) {
+            // Nothing to compare the file with
+            return null;
+        }
+
+        String checksum = Checksums.sha1(file);
+        return (photo.getChecksum() == null || photo.getChecksum().equals(checksum)) ? checksum : null;
+    }
+
+    private static ManifestEntry manifestEntry(ExportResult result) throws IOException {
+        Photo photo = result.getPhoto();
+        Path file = result.getFile();
+
+        return new ManifestEntry(photo.getPhotoId(), photo.getTitle(), file.getFileName().toString(), photo.getUrl(),
+                Files.size(file), Files.getLastModifiedTime(file).toMillis(), result.getChecksum());
+    }
+
+    /**
+     * Reads the manifest of an earlier export of the directory.
+     * @return the entries by photo ID, empty if there is no readable manifest.
+     */
+    private static Map<String, ManifestEntry> readManifest(Path directory) {
+        Map<String, ManifestEntry> entries = new HashMap<>();
+        Path manifestFile = directory.resolve(MANIFEST_FILE_NAME);
+        if (!Files.isRegularFile(manifestFile)) {
+            return entries;
+        }
+
+        try {
+            JSONObject manifest = new JSONObject(new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8));
+            JSONArray photos = manifest.getJSONArray("photos");
+            for (int i = 0; i < photos.length(); i++) {
+                ManifestEntry entry = ManifestEntry.fromJSON(photos.getJSONObject(i));
+                entries.put(entry.photoId, entry);
+            }
+        } catch (IOException | JSONException e) {
+            // Every file is checked against the server then
+            LOGGER.log(Level.WARNING, "Ignoring unreadable manifest " + manifestFile + ".", e);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the manifest to a temporary file and atomically replaces the old one.
+     */
+    private static void writeManifest(AlbumTarget target, List<ManifestEntry> entries) throws IOException {
+        JSONArray photos = new JSONArray();
+        for (ManifestEntry entry : entries) {
+            photos.put(entry.toJSON());
+        }
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("albumId", target.albumId);
+        manifest.put("title", target.title);
+        manifest.put("exported", System.currentTimeMillis());
+        manifest.put("photos", photos);
+
+        Path manifestFile = target.directory.resolve(MANIFEST_FILE_NAME);
+        Path tempFile = manifestFile.resolveSibling(MANIFEST_FILE_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            out.write(manifest.toString(2));
+            out.write('\n');
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Makes a title or server file name safe to use as a file name.
+     * @param name the name.
+     * @param fallback the name to use if nothing usable is left, e.g. the ID.
+     * @return the name with path separators, characters most file systems don't allow and control characters replaced.
+     */
+    static String toFileName(String name, String fallback) {
+        String fileName = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        if (fileName.isEmpty() || fileName.matches("\\.+")) {
+            return fallback;
+        }
+        return fileName;
+    }
+
+    private static ExportResult waitFor(Future<ExportResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for downloads.", e);
+        } catch (ExecutionException e) {
+            // exportOne catches everything worth reporting, so only errors end up here
+            throw new IllegalStateException("Download worker failed.", e.getCause());
+        }
+    }
+
+    /**
+     * An album to export and the downloads of its photos.
+     */
+    private static class AlbumTarget {
+        private final String albumId;
+        private final String title;
+        private final Path directory;
+        private final List<Future<ExportResult>> futures = new ArrayList<>();
+        private Exception listingFailure;
+
+        private AlbumTarget(String albumId, String title, Path directory) {
+            this.albumId = albumId;
+            this.title = title;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * One photo of a manifest.
+     */
+    private static class ManifestEntry {
+        private final String photoId;
+        private final String title;
+        private final String file;
+        private final String url;
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+
+        private ManifestEntry(String photoId, String title, String file, String url, long size, long lastModified, String checksum) {
+            this.photoId = photoId;
+            this.title = title;
+            this.file = file;
+            this.url = url;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        private JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("id", photoId);
+            json.put("title", title);
+            json.put("file", file);
+            json.put("url", url);
+            json.put("size", size);
+            json.put("lastModified", lastModified);
+            json.put("checksum", checksum);
+            return json;
+        }
+
+        private static ManifestEntry fromJSON(JSONObject json) {
+            return new ManifestEntry(json.getString("id"), json.optString("title"), json.getString("file"),
+                    json.getString("url"), json.getLong("size"), json.getLong("lastModified"), json.optString("checksum", null));
+        }
+    }
+}
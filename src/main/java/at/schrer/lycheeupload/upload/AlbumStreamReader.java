@@ -0,0 +1,219 @@
+package at.schrer.lycheeupload.upload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Decodes the answer of "Albums::get" album by album while it is read from the server.
+ * Only the JSON of the current album is held in memory, the rest of the response is never built up as a whole.
+ * Albums are returned in the order they appear in the response, smart albums are marked with {@link Album#isSmart()}.
+ * <p>
+ * The reader has to be closed after use, which also releases the connection it reads from.
+ */
+public class AlbumStreamReader implements Iterator<Album>, Closeable {
+
+    private enum Section { TOP_LEVEL, ALBUMS, SMART_ALBUMS, FINISHED }
+
+    private final Reader reader;
+    private final JSONTokener tokener;
+    private Section section = null;
+    private Album next = null;
+
+    /**
+     * @param in the body of an "Albums::get" response, UTF-8 encoded.
+     */
+    public AlbumStreamReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param reader the body of an "Albums::get" response.
+     */
+    public AlbumStreamReader(Reader reader) {
+        this.reader = reader;
+        this.tokener = new JSONTokener(reader);
+    }
+
+    /**
+     * @return true if there is another album in the response.
+     * @throws JSONException if the response is not valid JSON.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    /**
+     * @return the next album of the response.
+     * @throws JSONException if the response is not valid JSON.
+     */
+    @Override
+    public Album next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Album album = next;
+        next = null;
+        return album;
+    }
+
+    /**
+     * Creates a stream of the remaining albums. Closing the stream closes this reader.
+     * @return the stream.
+     */
+    public Stream<Album> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        section = Section.FINISHED;
+        reader.close();
+    }
+
+    private Album readNext() {
+        while (true) {
+            if (section == null) {
+                expect('{');
+                section = Section.TOP_LEVEL;
+            }
+
+            switch (section) {
+                case FINISHED:
+                    return null;
+                case TOP_LEVEL:
+                    enterNextSection();
+                    break;
+                case ALBUMS:
+                    Album album = readArrayAlbum();
+                    if (album != null) {
+                        return album;
+                    }
+                    break;
+                case SMART_ALBUMS:
+                    Album smartAlbum = readSmartAlbum();
+                    if (smartAlbum != null) {
+                        return smartAlbum;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the top level object until a list of albums starts, skipping all other values.
+     */
+    private void enterNextSection() {
+        char c = tokener.nextClean();
+        if (c == ',') {
+            c = tokener.nextClean();
+        }
+        if (c == '}') {
+            section = Section.FINISHED;
+            return;
+        }
+        tokener.back();
+
+        String key = tokener.nextValue().toString();
+        expect(':');
+
+        char valueStart = tokener.nextClean();
+        tokener.back();
+
+        if ("albums".equals(key) && valueStart == '[') {
+            expect('[');
+            section = Section.ALBUMS;
+        } else if ("smartalbums".equals(key) && valueStart == '{') {
+            expect('{');
+            section = Section.SMART_ALBUMS;
+        } else {
+            tokener.nextValue();
+        }
+    }
+
+    /**
+     * @return the next album of the "albums" array, or null if the array has ended.
+     */
+    private Album readArrayAlbum() {
+        char c = tokener.nextClean();
+        if (c == ',') {
+            c = tokener.nextClean();
+        }
+        if (c == ']') {
+            section = Section.TOP_LEVEL;
+            return null;
+        }
+        tokener.back();
+
+        Object value = tokener.nextValue();
+        if (!(value instanceof JSONObject)) {
+            throw tokener.syntaxError("Expected an album object");
+        }
+        return toAlbum((JSONObject) value, null, false);
+    }
+
+    /**
+     * @return the next album of the "smartalbums" object, or null if the object has ended.
+     */
+    private Album readSmartAlbum() {
+        char c = tokener.nextClean();
+        if (c == ',') {
+            c = tokener.nextClean();
+        }
+        if (c == '}') {
+            section = Section.TOP_LEVEL;
+            return null;
+        }
+        tokener.back();
+
+        String key = tokener.nextValue().toString();
+        expect(':');
+
+        Object value = tokener.nextValue();
+        if (!(value instanceof JSONObject)) {
+            // e.g. a smart album that is disabled on the server
+            return null;
+        }
+        return toAlbum((JSONObject) value, key, true);
+    }
+
+    private static Album toAlbum(JSONObject albumJSON, String key, boolean smart) {
+        String id = albumJSON.has("id") ? albumJSON.get("id").toString() : key;
+        String title = albumJSON.has("title") ? albumJSON.get("title").toString() : key;
+        boolean passwordProtected = albumJSON.has("password") && !"0".equals(albumJSON.get("password").toString());
+
+        return new Album(id, title, passwordProtected, smart);
+    }
+
+    private void expect(char expected) {
+        char c = tokener.nextClean();
+        if (c != expected) {
+            throw tokener.syntaxError("Expected '" + expected + "' but found '" + c + "'");
+        }
+    }
+}
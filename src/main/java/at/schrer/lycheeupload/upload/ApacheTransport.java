@@ -0,0 +1,56 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.IOException;
+
+/**
+ * Sends requests with a pooled Apache HTTP client over HTTP/1.1, one connection per concurrent request.
+ */
+public class ApacheTransport implements Transport {
+
+    private final CloseableHttpClient httpClient;
+    private final boolean ownsHttpClient;
+
+    /**
+     * @param httpClient the client to send requests with, e.g. one created by {@link ConnectionSettings#createHttpClient()}.
+     * @param ownsHttpClient true if the client is closed together with this transport, false if it is shared.
+     */
+    public ApacheTransport(CloseableHttpClient httpClient, boolean ownsHttpClient) {
+        this.httpClient = httpClient;
+        this.ownsHttpClient = ownsHttpClient;
+    }
+
+    @Override
+    public CloseableHttpResponse post(String url, HttpEntity body, CookieStore cookies) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(body);
+        return execute(post, cookies);
+    }
+
+    @Override
+    public CloseableHttpResponse get(String url, CookieStore cookies) throws IOException {
+        return execute(new HttpGet(url), cookies);
+    }
+
+    private CloseableHttpResponse execute(HttpUriRequest request, CookieStore cookies) throws IOException {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(cookies);
+
+        return httpClient.execute(request, context);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsHttpClient) {
+            httpClient.close();
+        }
+    }
+}
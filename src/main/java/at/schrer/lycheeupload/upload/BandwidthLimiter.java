@@ -0,0 +1,119 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which request bodies are sent, with a token bucket that allows short bursts.
+ * <p>
+ * Every uploader obeys the {@link #global()} limiter and, if set, its own one (see
+ * {@link LycheeUploaderHttp#setBandwidthLimiter(BandwidthLimiter)}). Concurrent uploads share a limiter fairly:
+ * a writer that finds the bucket empty takes the bytes anyway and waits until the bucket would have refilled, so the
+ * next writer queues behind it. The rate can be changed at any time and also affects uploads that are already running.
+ */
+public class BandwidthLimiter {
+
+    private static final BandwidthLimiter GLOBAL = new BandwidthLimiter(0);
+
+    private volatile long bytesPerSecond;
+    private long burstBytes;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Creates a limiter that allows bursts of one second.
+     * @param bytesPerSecond the rate, 0 for no limit.
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * @param bytesPerSecond the rate, 0 for no limit.
+     * @param burstBytes how many bytes may be sent at once after the limiter was idle.
+     */
+    public BandwidthLimiter(long bytesPerSecond, long burstBytes) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.burstBytes = Math.max(0, burstBytes);
+        this.tokens = this.burstBytes;
+    }
+
+    /**
+     * @return the limiter all uploaders obey, unlimited unless its rate is set.
+     */
+    public static BandwidthLimiter global() {
+        return GLOBAL;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate. Bytes already taken are not recalculated, so the new rate applies after a wait that is running now.
+     * @param bytesPerSecond the rate, 0 for no limit.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    public synchronized long getBurstBytes() {
+        return burstBytes;
+    }
+
+    /**
+     * @param burstBytes how many bytes may be sent at once after the limiter was idle.
+     */
+    public synchronized void setBurstBytes(long burstBytes) {
+        this.burstBytes = Math.max(0, burstBytes);
+        tokens = Math.min(tokens, this.burstBytes);
+    }
+
+    /**
+     * @return true if the rate is limited.
+     */
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Takes bytes from the bucket and waits until sending them keeps to the rate.
+     * @param bytes the number of bytes about to be sent.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        if (!isLimited()) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+            refill(System.nanoTime());
+            tokens -= bytes;
+            waitNanos = (tokens >= 0) ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth.");
+            }
+        }
+    }
+
+    private void refill(long now) {
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burstBytes, tokens + (double) (now - lastRefill) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        } else {
+            tokens = burstBytes;
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,497 @@
+package at.schrer.lycheeupload.upload;
+
+import at.schrer.lycheeupload.util.Checksums;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Uploads many files into one album over a fixed number of worker threads that share the session of one {@link LycheeUploaderHttp}.
+ * A failing file does not abort the batch, its error is recorded in the {@link UploadReport} instead.
+ * The uploads are started in the order set with {@link #setOrder(UploadSchedule.Order)}, e.g. largest first.
+ */
+public class BulkUploader {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkUploader.class.getName());
+
+    /**
+     * The number of concurrent uploads if none is set.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final LycheeUploaderHttp uploader;
+    private int threads = DEFAULT_THREADS;
+    private UploadJournal journal;
+    private ImageTransformer imageTransformer;
+    private ChecksumIndex checksumIndex;
+    private UploadSchedule.Order order = UploadSchedule.Order.GIVEN;
+    private UploadListener uploadListener;
+
+    /**
+     * Receives the photo ID of every file right after it was uploaded, e.g. to change the photo with a {@link PhotoBatch}.
+     */
+    @FunctionalInterface
+    public interface UploadListener {
+
+        /**
+         * Called on the upload thread, after a file was uploaded. Files that are skipped are not passed.
+         * @param file the uploaded file.
+         * @param photoId the ID of the new photo.
+         * @throws IOException if handling the photo fails. It is logged, the upload still counts as successful.
+         */
+        void uploaded(Path file, String photoId) throws IOException;
+    }
+
+    public BulkUploader(LycheeUploaderHttp uploader) {
+        this.uploader = uploader;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of concurrent uploads. Should not exceed the connections per route of the uploader's {@link ConnectionSettings}.
+     * @param threads the number of worker threads, at least 1.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+        this.threads = threads;
+    }
+
+    public UploadJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets a journal that records the progress of each file. Files the journal knows as uploaded to the album are skipped.
+     * @param journal the journal, or null to upload all files.
+     */
+    public void setJournal(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    public ImageTransformer getImageTransformer() {
+        return imageTransformer;
+    }
+
+    /**
+     * Sets a transformer that shrinks images before they are uploaded. The journal still identifies files by their original content.
+     * @param imageTransformer the transformer, or null to upload the original files.
+     */
+    public void setImageTransformer(ImageTransformer imageTransformer) {
+        this.imageTransformer = imageTransformer;
+    }
+
+    public ChecksumIndex getChecksumIndex() {
+        return checksumIndex;
+    }
+
+    /**
+     * Files whose checksum the index knows for the target album are reported as skipped instead of being uploaded.
+     * The checksums are computed on the upload threads, of the transformed image if an {@link ImageTransformer} changes it.
+     * @param checksumIndex the index of the photos on the server, or null to upload every file.
+     */
+    public void setChecksumIndex(ChecksumIndex checksumIndex) {
+        this.checksumIndex = checksumIndex;
+    }
+
+    public UploadSchedule.Order getOrder() {
+        return order;
+    }
+
+    /**
+     * Sets the order in which the uploads of a batch are started. With workers that take the next file when they are free,
+     * {@link UploadSchedule.Order#LARGEST_FIRST} keeps a large file from holding up the end of a batch, and
+     * {@link UploadSchedule.Order#SMALLEST_FIRST} gets the most files done early.
+     * @param order the order, {@link UploadSchedule.Order#GIVEN} by default.
+     */
+    public void setOrder(UploadSchedule.Order order) {
+        this.order = order;
+    }
+
+    public UploadListener getUploadListener() {
+        return uploadListener;
+    }
+
+    /**
+     * @param uploadListener receives the photo ID of each uploaded file, or null.
+     */
+    public void setUploadListener(UploadListener uploadListener) {
+        this.uploadListener = uploadListener;
+    }
+
+    /**
+     * Uploads all given files into an album.
+     * @param albumId the ID of the album to which the images should be added.
+     * @param files the images to upload.
+     * @return one result per file, in the order of the given collection, with the schedule the uploads were started in.
+     */
+    public UploadReport uploadAll(String albumId, Collection<Path> files) {
+        long start = System.currentTimeMillis();
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, Math.max(files.size(), 1)));
+        try {
+            List<Path> fileList = new ArrayList<>(files);
+            UploadSchedule schedule = createSchedule(fileList);
+            List<Future<UploadResult>> futures = new ArrayList<>(files.size());
+            submitAll(albumId, fileList, workers, futures, schedule);
+
+            List<UploadResult> results = new ArrayList<>(files.size());
+            for (Future<UploadResult> future : futures) {
+                results.add(waitFor(future));
+            }
+
+            return new UploadReport(results, System.currentTimeMillis() - start, schedule);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits the uploads of files to an executor that may be shared with other albums, see {@link #uploadAll(String, Collection)}.
+     * @param futures receives one future per file, in the order of the given collection.
+     */
+    void submitAll(String albumId, Collection<Path> files, ExecutorService workers, List<Future<UploadResult>> futures) {
+        List<Path> fileList = new ArrayList<>(files);
+        submitAll(albumId, fileList, workers, futures, createSchedule(fileList));
+    }
+
+    private void submitAll(String albumId, List<Path> files, ExecutorService workers, List<Future<UploadResult>> futures,
+                           UploadSchedule schedule) {
+        List<Future<UploadResult>> submitted = new ArrayList<>(Collections.nCopies(files.size(), null));
+        List<Supplier<UploadResult>> tasks;
+        if (journal == null) {
+            tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(() -> uploadOne(albumId, file));
+            }
+        } else {
+            tasks = journaledTasks(albumId, files, submitted);
+        }
+
+        for (int index : schedule.getStartOrder()) {
+            Supplier<UploadResult> task = tasks.get(index);
+            if (task != null) {
+                submitted.set(index, workers.submit(() -> timed(schedule, index, task)));
+            }
+        }
+        futures.addAll(submitted);
+    }
+
+    private UploadSchedule createSchedule(List<Path> files) {
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            try {
+                sizes[i] = Files.size(files.get(i));
+            } catch (IOException e) {
+                // Unreadable files are reported by the upload itself
+                sizes[i] = 0;
+            }
+        }
+        return new UploadSchedule(sizes, threads, order);
+    }
+
+    private static UploadResult timed(UploadSchedule schedule, int index, Supplier<UploadResult> task) {
+        long start = System.nanoTime();
+        UploadResult result = task.get();
+        schedule.record(index, (System.nanoTime() - start) / 1_000_000, result.isSuccessful() && !result.isSkipped());
+        return result;
+    }
+
+    private UploadResult uploadOne(String albumId, Path file) {
+        return uploadOne(albumId, file, null);
+    }
+
+    /**
+     * @param fileChecksum the checksum of the file if it is already known, or null.
+     */
+    private UploadResult uploadOne(String albumId, Path file, String fileChecksum) {
+        ChecksumIndex index = checksumIndex;
+        try {
+            byte[] transformed = (imageTransformer == null) ? null : imageTransformer.transform(file);
+
+            String checksum = null;
+            if (index != null) {
+                checksum = (transformed != null) ? Checksums.sha1(transformed)
+                        : (fileChecksum != null) ? fileChecksum : Checksums.sha1(file);
+                String existing = index.find(albumId, checksum);
+                if (existing != null) {
+                    return UploadResult.skipped(file, existing);
+                }
+            }
+
+            String imageId = (transformed != null)
+                    ? uploader.uploadImage(albumId, file.getFileName().toString(), transformed)
+                    : uploader.uploadImage(albumId, file.toString());
+
+            if (index != null) {
+                index.add(albumId, checksum, imageId);
+            }
+            notifyUploaded(file, imageId);
+            return UploadResult.success(file, imageId);
+        } catch (IOException | RuntimeException e) {
+            return UploadResult.failure(file, e);
+        }
+    }
+
+    private void notifyUploaded(Path file, String imageId) {
+        UploadListener listener = uploadListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.uploaded(file, imageId);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to handle uploaded photo " + imageId + " of " + file + ".", e);
+        }
+    }
+
+    /**
+     * Skips the files the journal knows as unchanged and uploaded, and queues the others. All queued files are recorded
+     * before the first upload starts, so a later state of a file can't be overwritten by its queued state. Files whose
+     * upload was interrupted keep their state until they are looked up in the album.
+     * @param skipped receives the results of the skipped files at their index.
+     * @return the upload of each file, or null for skipped files.
+     */
+    private List<Supplier<UploadResult>> journaledTasks(String albumId, List<Path> files, List<Future<UploadResult>> skipped) {
+        List<UploadJournal.Entry> entries = new ArrayList<>(files.size());
+        List<UploadJournal.Entry> queued = new ArrayList<>();
+        boolean interrupted = false;
+
+        for (Path file : files) {
+            UploadJournal.Entry entry = journalEntry(albumId, file);
+            entries.add(entry);
+            if (entry != null && entry.getState() == UploadJournal.State.QUEUED) {
+                queued.add(entry);
+            }
+            interrupted |= entry != null && entry.getState() == UploadJournal.State.IN_FLIGHT;
+        }
+
+        recordQueued(queued);
+        ChecksumIndex index = (!interrupted || checksumIndex != null) ? checksumIndex : new ChecksumIndex(uploader);
+
+        List<Supplier<UploadResult>> tasks = new ArrayList<>(files.size());
+        Iterator<UploadJournal.Entry> entryIterator = entries.iterator();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            UploadJournal.Entry entry = entryIterator.next();
+            if (entry == null) {
+                // Unreadable files are reported by the upload itself
+                tasks.add(() -> uploadOne(albumId, file));
+            } else if (entry.getState() == UploadJournal.State.DONE) {
+                tasks.add(null);
+                skipped.set(i, CompletableFuture.completedFuture(UploadResult.skipped(file, entry.getImageId())));
+            } else if (entry.getState() == UploadJournal.State.IN_FLIGHT) {
+                tasks.add(() -> resumeInterrupted(file, entry, index));
+            } else {
+                tasks.add(() -> uploadJournaled(file, entry));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Uploads a file and keeps the journal up to date. The checksum is only computed here, on the worker thread,
+     * so files that are skipped because of an unchanged size and modification time are never read.
+     */
+    private UploadResult uploadJournaled(Path file, UploadJournal.Entry queued) {
+        UploadJournal.Entry entry = queued;
+        try {
+            entry = entry.withChecksum(Checksums.sha1(file));
+
+            UploadJournal.Entry done = journal.findDoneByChecksum(entry.getAlbumId(), entry.getChecksum());
+            if (done != null) {
+                journal.record(entry.withState(UploadJournal.State.DONE, done.getImageId()));
+                return UploadResult.skipped(file, done.getImageId());
+            }
+
+            journal.record(entry.withState(UploadJournal.State.IN_FLIGHT, null));
+        } catch (IOException e) {
+            return UploadResult.failure(file, e);
+        }
+
+        UploadResult result = uploadOne(entry.getAlbumId(), file, entry.getChecksum());
+
+        try {
+            if (result.isSuccessful()) {
+                journal.record(entry.withState(UploadJournal.State.DONE, result.getImageId()));
+            } else {
+                journal.record(entry.withState(UploadJournal.State.FAILED, null));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record upload of " + file + " in journal.", e);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a file whose upload was interrupted, e.g. by a crash, after the request may already have reached the server.
+     * Instead of uploading it again blindly, the file is looked up in the album by its checksum. If the album doesn't have
+     * it, the file is reported as failed and recorded as such, so the next run uploads it. The server may still have
+     * stored it without a checksum.
+     */
+    private UploadResult resumeInterrupted(Path file, UploadJournal.Entry interrupted, ChecksumIndex index) {
+        try {
+            String checksum = Checksums.sha1(file);
+            if (!checksum.equals(interrupted.getChecksum())) {
+                // The file changed since, so the interrupted upload was of other content
+                return uploadJournaled(file, interrupted.withState(UploadJournal.State.QUEUED, null));
+            }
+
+            String photoId = index.find(interrupted.getAlbumId(), checksum);
+            if (photoId != null) {
+                journal.record(interrupted.withState(UploadJournal.State.DONE, photoId));
+                return UploadResult.skipped(file, photoId);
+            }
+
+            journal.record(interrupted.withState(UploadJournal.State.FAILED, null));
+            return UploadResult.failure(file, new IOException("The last upload of " + file + " was interrupted and the album"
+                    + " has no photo with its checksum, but the server may have stored it without one. Not uploaded again,"
+                    + " the next run will upload it."));
+        } catch (IOException e) {
+            return UploadResult.failure(file, e);
+        }
+    }
+
+    /**
+     * Creates the journal entry for a file, based on its current size and modification time.
+     * @return the finished entry if the file is unchanged since it was uploaded, an in-flight entry if its last upload
+     * was interrupted, a queued entry otherwise, or null if the file can't be read.
+     */
+    private UploadJournal.Entry journalEntry(String albumId, Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            UploadJournal.Entry done = journal.findUnchanged(albumId, file, size, lastModified);
+            if (done != null) {
+                return done;
+            }
+            UploadJournal.Entry last = journal.getEntry(albumId, file);
+            if (last != null && last.getState() == UploadJournal.State.IN_FLIGHT && last.getChecksum() != null) {
+                return new UploadJournal.Entry(UploadJournal.State.IN_FLIGHT, albumId, file, size, lastModified, last.getChecksum(), null);
+            }
+            return new UploadJournal.Entry(UploadJournal.State.QUEUED, albumId, file, size, lastModified, null, null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void recordQueued(List<UploadJournal.Entry> queued) {
+        if (queued.isEmpty()) {
+            return;
+        }
+        try {
+            journal.recordAll(queued);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record queued files in journal.", e);
+        }
+    }
+
+    static UploadResult waitFor(Future<UploadResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for uploads.", e);
+        } catch (ExecutionException e) {
+            // uploadOne catches everything worth reporting, so only errors end up here
+            throw new IllegalStateException("Upload worker failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Collects all supported images for a path. A directory is walked recursively, a pattern like "photos/**.jpg" is matched
+     * as a glob below its fixed leading directories and a single file is returned as is. A path that exists is never
+     * treated as a glob, so directories like "photos [2024]" work as expected.
+     * @param pathOrGlob a path to a file or directory, or a glob pattern.
+     * @return the images, sorted by path.
+     * @throws IOException if the directory tree can't be read.
+     */
+    public static List<Path> collectImages(String pathOrGlob) throws IOException {
+        int globStart = indexOfGlob(pathOrGlob);
+        if (globStart < 0 || existsLiterally(pathOrGlob)) {
+            return collectImages(Paths.get(pathOrGlob));
+        }
+
+        int baseEnd = Math.max(pathOrGlob.lastIndexOf('/', globStart), pathOrGlob.lastIndexOf(File.separatorChar, globStart));
+        Path base = baseEnd < 0 ? Paths.get(".") : Paths.get(pathOrGlob.substring(0, baseEnd + 1));
+        String pattern = baseEnd < 0 ? "./" + pathOrGlob : pathOrGlob;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        return walkImages(base, matcher);
+    }
+
+    /**
+     * Collects all supported images for a path without any glob handling. A directory is walked recursively and a
+     * single file is returned as is.
+     * @param path a path to a file or directory.
+     * @return the images, sorted by path.
+     * @throws IOException if the directory tree can't be read.
+     */
+    public static List<Path> collectImages(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            List<Path> single = new ArrayList<>();
+            single.add(path);
+            return single;
+        }
+        return walkImages(path, p -> true);
+    }
+
+    private static List<Path> walkImages(Path directory, PathMatcher matcher) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .filter(p -> LycheeUploaderHttp.isSupportedImage(p.getFileName().toString()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean existsLiterally(String path) {
+        try {
+            return Files.exists(Paths.get(path));
+        } catch (InvalidPathException e) {
+            // glob characters like '*' aren't valid in paths on every platform
+            return false;
+        }
+    }
+
+    private static int indexOfGlob(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
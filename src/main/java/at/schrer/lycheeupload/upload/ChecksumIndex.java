@@ -0,0 +1,84 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory index of the checksums of the photos on the server, so a {@link BulkUploader} can skip files that are
+ * already in the target album, see {@link BulkUploader#setChecksumIndex(ChecksumIndex)}.
+ * <p>
+ * The checksums of an album are loaded with one request when it is first looked up. Photos uploaded through the index
+ * are added to it, so a copy of a file that was already uploaded in the same import is skipped too. Copies that are
+ * uploaded at the same time on different threads are not detected.
+ */
+public class ChecksumIndex {
+
+    private final LycheeUploaderHttp uploader;
+    private final Map<String, Map<String, String>> albums = new ConcurrentHashMap<>();
+
+    /**
+     * @param uploader the uploader to load the checksums with.
+     */
+    public ChecksumIndex(LycheeUploaderHttp uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * Finds a photo in an album by its checksum.
+     * @param albumId the ID of the album.
+     * @param checksum the SHA-1 checksum of the photo, as lower case hex.
+     * @return the ID of the photo, or null if the album has no photo with this checksum.
+     * @throws IOException if the checksums of the album can't be loaded.
+     */
+    public String find(String albumId, String checksum) throws IOException {
+        return album(albumId).get(checksum);
+    }
+
+    /**
+     * Adds a photo that was just uploaded.
+     * @param albumId the ID of the album.
+     * @param checksum the SHA-1 checksum of the photo, as lower case hex.
+     * @param photoId the ID of the photo.
+     * @throws IOException if the checksums of the album can't be loaded.
+     */
+    public void add(String albumId, String checksum, String photoId) throws IOException {
+        album(albumId).putIfAbsent(checksum, photoId);
+    }
+
+    /**
+     * Marks an album as known to be empty, e.g. because it was just created, so it is not loaded from the server.
+     * @param albumId the ID of the album.
+     */
+    public void addEmptyAlbum(String albumId) {
+        albums.putIfAbsent(albumId, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @return the number of checksums in the index, over all albums.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, String> album : albums.values()) {
+            size += album.size();
+        }
+        return size;
+    }
+
+    private Map<String, String> album(String albumId) throws IOException {
+        Map<String, String> album = albums.get(albumId);
+        if (album != null) {
+            return album;
+        }
+
+        // Only one thread loads an album, the others wait for it instead of sending the same request
+        synchronized (this) {
+            album = albums.get(albumId);
+            if (album == null) {
+                album = new ConcurrentHashMap<>(uploader.getPhotoChecksums(albumId));
+                albums.put(albumId, album);
+            }
+            return album;
+        }
+    }
+}
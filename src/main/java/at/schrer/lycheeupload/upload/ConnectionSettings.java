@@ -0,0 +1,207 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the pooled HTTP client used by {@link LycheeUploaderHttp}.
+ * All values have sensible defaults, so an instance created with the default constructor can be used right away.
+ * A client created with {@link #createHttpClient()} can be shared between several uploaders.
+ */
+public class ConnectionSettings {
+
+    /**
+     * The Apache HTTP client over HTTP/1.1, see {@link ApacheTransport}.
+     */
+    public static final String TRANSPORT_APACHE = "apache";
+
+    /**
+     * The JDK HTTP client, over HTTP/2 where the server supports it, see {@link JdkHttpTransport}.
+     */
+    public static final String TRANSPORT_HTTP2 = "http2";
+
+    private int maxConnectionsTotal = 20;
+    private int maxConnectionsPerRoute = 10;
+    private long keepAliveMillis = 60_000;
+    private long idleEvictionMillis = 30_000;
+    private int connectTimeoutMillis = 10_000;
+    private int socketTimeoutMillis = 120_000;
+    private String transport = TRANSPORT_APACHE;
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return how long a connection is kept alive if the server does not send a "Keep-Alive: timeout=..." header.
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public void setKeepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * @return the time after which unused pooled connections get closed by a background thread.
+     */
+    public long getIdleEvictionMillis() {
+        return idleEvictionMillis;
+    }
+
+    public void setIdleEvictionMillis(long idleEvictionMillis) {
+        this.idleEvictionMillis = idleEvictionMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param transport {@link #TRANSPORT_APACHE} or {@link #TRANSPORT_HTTP2}.
+     */
+    public void setTransport(String transport) {
+        if (!TRANSPORT_APACHE.equals(transport) && !TRANSPORT_HTTP2.equals(transport)) {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Creates a new transport of the type given by {@link #getTransport()}, configured from these settings.
+     * The caller is responsible for closing the transport.
+     * @return a new transport.
+     */
+    public Transport createTransport() {
+        if (TRANSPORT_HTTP2.equals(transport)) {
+            return new JdkHttpTransport(this);
+        }
+        return new ApacheTransport(createHttpClient(), true);
+    }
+
+    /**
+     * Creates a new pooled HTTP client with keep-alive and idle connection eviction configured from these settings.
+     * The caller is responsible for closing the client.
+     * @return a new HTTP client.
+     */
+    public CloseableHttpClient createHttpClient() {
+        // The default registry sets up TLS right away, which costs a noticeable part of the startup time for plain HTTP
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", new LazySSLSocketFactory())
+                        .build());
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy())
+                .evictExpiredConnections()
+                .evictIdleConnections(idleEvictionMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Uses the timeout sent by the server in the Keep-Alive header and falls back to {@link #getKeepAliveMillis()}.
+     * @return the keep-alive strategy.
+     */
+    private ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (HttpResponse response, HttpContext context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                        // fall through to the default
+                    }
+                }
+            }
+            return keepAliveMillis;
+        };
+    }
+
+    /**
+     * Creates the TLS socket factory, with the default SSL context and trust store, when the first HTTPS connection is opened.
+     */
+    private static class LazySSLSocketFactory implements LayeredConnectionSocketFactory {
+
+        private static class Holder {
+            private static final SSLConnectionSocketFactory FACTORY = SSLConnectionSocketFactory.getSocketFactory();
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return Holder.FACTORY.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            return Holder.FACTORY.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            return Holder.FACTORY.createLayeredSocket(socket, target, port, context);
+        }
+    }
+}
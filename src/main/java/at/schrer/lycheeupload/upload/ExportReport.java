@@ -0,0 +1,71 @@
+package at.schrer.lycheeupload.upload;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of an album export, one entry per photo, grouped by album in the order the albums were exported.
+ */
+public class ExportReport {
+
+    private final List<ExportResult> results;
+    private final long durationMillis;
+
+    public ExportReport(List<ExportResult> results, long durationMillis) {
+        this.results = Collections.unmodifiableList(results);
+        this.durationMillis = durationMillis;
+    }
+
+    public List<ExportResult> getResults() {
+        return results;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getDownloadedCount() {
+        int count = 0;
+        for (ExportResult result : results) {
+            if (result.isSuccessful() && !result.isSkipped()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getSkippedCount() {
+        int count = 0;
+        for (ExportResult result : results) {
+            if (result.isSkipped()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailureCount() {
+        int count = 0;
+        for (ExportResult result : results) {
+            if (!result.isSuccessful()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bytes downloaded over all photos.
+     */
+    public long getBytesDownloaded() {
+        long bytes = 0;
+        for (ExportResult result : results) {
+            bytes += result.getBytesDownloaded();
+        }
+        return bytes;
+    }
+
+    public boolean isSuccessful() {
+        return getFailureCount() == 0;
+    }
+}
@@ -0,0 +1,111 @@
+package at.schrer.lycheeupload.upload;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of exporting a single photo as part of an album export. If the photos of an album could not be listed,
+ * there is one failed result for the album without a photo.
+ */
+public class ExportResult {
+
+    private final String albumId;
+    private final Photo photo;
+    private final Path file;
+    private final long bytesDownloaded;
+    private final String checksum;
+    private final Exception error;
+    private final boolean skipped;
+
+    private ExportResult(String albumId, Photo photo, Path file, long bytesDownloaded, String checksum, Exception error, boolean skipped) {
+        this.albumId = albumId;
+        this.photo = photo;
+        this.file = file;
+        this.bytesDownloaded = bytesDownloaded;
+        this.checksum = checksum;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    public static ExportResult downloaded(String albumId, Photo photo, Path file, long bytesDownloaded, String checksum) {
+        return new ExportResult(albumId, photo, file, bytesDownloaded, checksum, null, false);
+    }
+
+    /**
+     * Creates the result for a photo that was not downloaded, because the file on disk already matches it.
+     * @param albumId the album of the photo.
+     * @param photo the photo.
+     * @param file the existing file.
+     * @param checksum the SHA-1 checksum of the existing file.
+     * @return the result.
+     */
+    public static ExportResult skipped(String albumId, Photo photo, Path file, String checksum) {
+        return new ExportResult(albumId, photo, file, 0, checksum, null, true);
+    }
+
+    public static ExportResult failure(String albumId, Photo photo, Path file, Exception error) {
+        return new ExportResult(albumId, photo, file, 0, null, error, false);
+    }
+
+    public String getAlbumId() {
+        return albumId;
+    }
+
+    /**
+     * @return the photo, or null if the photos of the album could not be listed.
+     */
+    public Photo getPhoto() {
+        return photo;
+    }
+
+    /**
+     * @return the file of the photo, or the directory of the album if its photos could not be listed.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of bytes written to the file, 0 if it was skipped or failed.
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * @return the SHA-1 checksum of the file (lower case hex), or null if the export failed.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the reason the export failed, or null if it was successful.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * @return true if the file on disk already matched the photo and it has not been downloaded again.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportResult{" +
+                "albumId='" + albumId + '\'' +
+                ", photo=" + photo +
+                ", file='" + file + '\'' +
+                ", bytesDownloaded=" + bytesDownloaded +
+                ", checksum='" + checksum + '\'' +
+                ", error=" + error +
+                ", skipped=" + skipped +
+                '}';
+    }
+}
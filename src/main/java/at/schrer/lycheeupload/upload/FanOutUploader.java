@@ -0,0 +1,170 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads the same files to several Lychee servers, e.g. a gallery and its mirror.
+ * <p>
+ * Each file is read, and transformed if an {@link ImageTransformer} is set, only once. The same buffer is then uploaded to
+ * all servers in parallel. Every server has its own session and its own upload threads, and a failing or slow server does
+ * not stop the uploads to the others. A fast server is at most {@link #getBufferedFiles()} files ahead of the slowest one,
+ * as each buffer is kept until all servers have it.
+ */
+public class FanOutUploader {
+
+    private final Map<String, LycheeUploaderHttp> targets;
+    private int threads = 4;
+    private int bufferedFiles = 16;
+    private ImageTransformer imageTransformer;
+
+    /**
+     * @param targets the logged in uploaders by the name they are reported with.
+     */
+    public FanOutUploader(Map<String, LycheeUploaderHttp> targets) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one target is needed.");
+        }
+        this.targets = new LinkedHashMap<>(targets);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of concurrent uploads per server.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+        this.threads = threads;
+    }
+
+    public int getBufferedFiles() {
+        return bufferedFiles;
+    }
+
+    /**
+     * @param bufferedFiles the number of files kept in memory at most, until they are uploaded to all servers.
+     */
+    public void setBufferedFiles(int bufferedFiles) {
+        if (bufferedFiles < 1) {
+            throw new IllegalArgumentException("At least one file has to be buffered.");
+        }
+        this.bufferedFiles = bufferedFiles;
+    }
+
+    public ImageTransformer getImageTransformer() {
+        return imageTransformer;
+    }
+
+    /**
+     * @param imageTransformer the transformer applied once per file before it is uploaded, or null to upload files unchanged.
+     */
+    public void setImageTransformer(ImageTransformer imageTransformer) {
+        this.imageTransformer = imageTransformer;
+    }
+
+    /**
+     * Uploads all files to all servers.
+     * @param albumIds the ID of the album on each server, by target name. Targets without album are not uploaded to.
+     * @param files the images to upload.
+     * @return a report per target, in the order the targets were given, each with one result per file in the order of the files.
+     */
+    public Map<String, UploadReport> uploadAll(Map<String, String> albumIds, List<Path> files) {
+        long start = System.currentTimeMillis();
+
+        Map<String, ExecutorService> uploaders = new LinkedHashMap<>();
+        Map<String, List<CompletableFuture<UploadResult>>> futures = new LinkedHashMap<>();
+        Map<String, AtomicLong> lastFinished = new LinkedHashMap<>();
+        for (String target : targets.keySet()) {
+            if (albumIds.containsKey(target)) {
+                uploaders.put(target, Executors.newFixedThreadPool(threads));
+                futures.put(target, new ArrayList<>(files.size()));
+                lastFinished.put(target, new AtomicLong(start));
+            }
+        }
+
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(threads, bufferedFiles));
+        Semaphore buffers = new Semaphore(bufferedFiles);
+        try {
+            for (Path file : files) {
+                buffers.acquire();
+
+                CompletableFuture<byte[]> data = CompletableFuture.supplyAsync(() -> read(file), readers);
+                List<CompletableFuture<UploadResult>> fileUploads = new ArrayList<>(uploaders.size());
+
+                for (Map.Entry<String, ExecutorService> uploader : uploaders.entrySet()) {
+                    String target = uploader.getKey();
+                    CompletableFuture<UploadResult> upload = data
+                            .thenApplyAsync(bytes -> upload(target, albumIds.get(target), file, bytes), uploader.getValue())
+                            .exceptionally(error -> UploadResult.failure(file, unwrap(error)))
+                            .whenComplete((result, error) -> lastFinished.get(target).accumulateAndGet(System.currentTimeMillis(), Math::max));
+                    fileUploads.add(upload);
+                    futures.get(target).add(upload);
+                }
+
+                CompletableFuture.allOf(fileUploads.toArray(new CompletableFuture<?>[0]))
+                        .whenComplete((ignored, error) -> buffers.release());
+            }
+
+            Map<String, UploadReport> reports = new LinkedHashMap<>();
+            for (Map.Entry<String, List<CompletableFuture<UploadResult>>> target : futures.entrySet()) {
+                List<UploadResult> results = new ArrayList<>(files.size());
+                for (CompletableFuture<UploadResult> future : target.getValue()) {
+                    results.add(future.join());
+                }
+                reports.put(target.getKey(), new UploadReport(results, lastFinished.get(target.getKey()).get() - start));
+            }
+            return reports;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for uploads.", e);
+        } finally {
+            readers.shutdownNow();
+            for (ExecutorService uploader : uploaders.values()) {
+                uploader.shutdownNow();
+            }
+        }
+    }
+
+    private byte[] read(Path file) {
+        try {
+            if (imageTransformer != null) {
+                byte[] transformed = imageTransformer.transform(file);
+                if (transformed != null) {
+                    return transformed;
+                }
+            }
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private UploadResult upload(String target, String albumId, Path file, byte[] data) {
+        try {
+            return UploadResult.success(file, targets.get(target).uploadImage(albumId, file.getFileName().toString(), data));
+        } catch (IOException | RuntimeException e) {
+            return UploadResult.failure(file, e);
+        }
+    }
+
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        return (cause instanceof Exception) ? (Exception) cause : new IOException(cause);
+    }
+}
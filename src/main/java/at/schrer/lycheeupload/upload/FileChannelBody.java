@@ -0,0 +1,108 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A multipart file part that is read from an open {@link FileChannel} with positional reads into a per thread buffer,
+ * so sending a file allocates no buffers and the part can be written again when a request is repeated.
+ * The file is opened once, its format is recognized from the first bytes when it is opened.
+ * <p>
+ * HttpClient 4.5 only offers an {@link OutputStream} to the connection, so a {@link FileChannel#transferTo} into the
+ * socket is not possible; the bytes pass through the buffer of this class once.
+ */
+class FileChannelBody extends AbstractContentBody implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    private final FileChannel channel;
+    private final String fileName;
+    private final long size;
+    private final ImageFormat format;
+
+    private FileChannelBody(FileChannel channel, String fileName, long size, ImageFormat format) {
+        super(format == null ? ContentType.APPLICATION_OCTET_STREAM : format.getContentType());
+        this.channel = channel;
+        this.fileName = fileName;
+        this.size = size;
+        this.format = format;
+    }
+
+    /**
+     * Opens a file and recognizes its format.
+     * @param file the file to send.
+     * @param fileName the file name sent with the part.
+     * @return the part, which has to be closed after the request.
+     * @throws IOException if the file can't be opened.
+     */
+    static FileChannelBody open(Path file, String fileName) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ImageFormat.HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // read until the header is complete or the file ends
+            }
+            ImageFormat format = ImageFormat.detect(header.array(), header.position());
+            return new FileChannelBody(channel, fileName, channel.size(), format);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the format recognized from the first bytes of the file, or null if it is unknown.
+     */
+    ImageFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return size;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        long position = 0;
+
+        while (position < size) {
+            buffer.clear();
+            if (size - position < buffer.capacity()) {
+                buffer.limit((int) (size - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File " + fileName + " got shorter while it was uploaded.");
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
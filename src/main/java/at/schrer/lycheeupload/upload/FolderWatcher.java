@@ -0,0 +1,240 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a directory tree and uploads images that are added to it, using a {@link BulkUploader} and thus its session, worker threads and journal.
+ * <p>
+ * A new file is only uploaded after its size and modification time have not changed for {@link #getSettleMillis()},
+ * so files that are still being written are not sent half finished. All files that settled since the last check are uploaded
+ * together as one batch, which coalesces bursts like a camera import into few bulk uploads.
+ * Files that exist when watching starts and files that are changed later are not uploaded,
+ * new subdirectories are watched as soon as they appear. If the file system drops events, the directory is scanned again
+ * and only files the watcher has not seen before are uploaded, with or without a journal.
+ */
+public class FolderWatcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(FolderWatcher.class.getName());
+
+    private final BulkUploader bulkUploader;
+    private final String albumId;
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, PendingFile> pendingFiles = new HashMap<>();
+    private final Set<Path> knownFiles = new HashSet<>();
+
+    private long settleMillis = 2000;
+    private long pollMillis = 500;
+    private Consumer<UploadReport> reportListener = report -> {};
+
+    /**
+     * @param bulkUploader the uploader used for each batch.
+     * @param albumId the ID of the album to which the images should be added.
+     * @param root the directory to watch, including all subdirectories.
+     * @throws IOException if the directory can't be watched.
+     */
+    public FolderWatcher(BulkUploader bulkUploader, String albumId, Path root) throws IOException {
+        this.bulkUploader = bulkUploader;
+        this.albumId = albumId;
+        this.root = root;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    public long getSettleMillis() {
+        return settleMillis;
+    }
+
+    /**
+     * @param settleMillis how long size and modification time of a file have to stay the same before it is uploaded.
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    public long getPollMillis() {
+        return pollMillis;
+    }
+
+    /**
+     * @param pollMillis how often pending files are checked, while no new events arrive.
+     */
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * @param reportListener called with the report of every uploaded batch, on the watching thread.
+     */
+    public void setReportListener(Consumer<UploadReport> reportListener) {
+        this.reportListener = reportListener;
+    }
+
+    /**
+     * Watches the directory and uploads new images until {@link #close()} is called or the thread is interrupted.
+     * @throws IOException if the directory can't be watched.
+     */
+    public void run() throws IOException {
+        registerTree(root);
+        // Existing files are not uploaded, remember them so a scan after lost events doesn't take them for new ones
+        knownFiles.addAll(BulkUploader.collectImages(root));
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+
+                List<Path> settled = takeSettledFiles();
+                if (!settled.isEmpty()) {
+                    reportListener.accept(bulkUploader.uploadAll(albumId, settled));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed from another thread, stop watching
+        }
+    }
+
+    /**
+     * Stops watching. Uploads of a batch that is currently running are finished first.
+     * @throws IOException if the watch service can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        Path directory = watchedDirectories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events got lost, look for files that were not there before
+                LOGGER.log(Level.WARNING, "Too many file events in {0}, scanning it again.", directory);
+                addPendingFiles(directory);
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerTree(path);
+                    // Files may have been added before the directory was registered
+                    addPendingFiles(path);
+                }
+            } else if (LycheeUploaderHttp.isSupportedImage(path.getFileName().toString())) {
+                // A create event is new even for a known path, e.g. a file that was replaced
+                pendingFiles.putIfAbsent(path, new PendingFile());
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /**
+     * Removes all files from the pending list that did not change for the settle time.
+     * @return the settled files.
+     */
+    private List<Path> takeSettledFiles() {
+        List<Path> settled = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        Iterator<Map.Entry<Path, PendingFile>> it = pendingFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = it.next();
+            Path file = entry.getKey();
+
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (entry.getValue().isSettled(attributes.size(), attributes.lastModifiedTime().toMillis(), now, settleMillis)) {
+                    settled.add(file);
+                    knownFiles.add(file);
+                    it.remove();
+                }
+            } catch (IOException e) {
+                // deleted or moved away before it settled
+                it.remove();
+            }
+        }
+
+        return settled;
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // Writing a file only needs to be noticed once, the settle check covers the rest
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Adds the images of a directory tree that were neither there when watching started nor uploaded since.
+     */
+    private void addPendingFiles(Path directory) throws IOException {
+        if (directory == null) {
+            directory = root;
+        }
+        for (Path image : BulkUploader.collectImages(directory)) {
+            if (!knownFiles.contains(image)) {
+                pendingFiles.putIfAbsent(image, new PendingFile());
+            }
+        }
+    }
+
+    /**
+     * The last seen size and modification time of a file that waits to be uploaded.
+     */
+    private static class PendingFile {
+        private long size = -1;
+        private long lastModified = -1;
+        private long unchangedSince = 0;
+
+        private boolean isSettled(long currentSize, long currentLastModified, long now, long settleMillis) {
+            if (currentSize != size || currentLastModified != lastModified) {
+                size = currentSize;
+                lastModified = currentLastModified;
+                unchangedSince = now;
+                return false;
+            }
+            return now - unchangedSince >= settleMillis;
+        }
+    }
+}
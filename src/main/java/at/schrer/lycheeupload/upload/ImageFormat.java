@@ -0,0 +1,89 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Image formats recognized by the first bytes of a file, independent of its name.
+ */
+public enum ImageFormat {
+
+    JPEG(ContentType.IMAGE_JPEG, true),
+    PNG(ContentType.IMAGE_PNG, true),
+    GIF(ContentType.IMAGE_GIF, true),
+    WEBP(ContentType.create("image/webp"), false),
+    HEIC(ContentType.create("image/heic"), false);
+
+    /**
+     * The number of bytes {@link #detect(byte[], int)} needs to recognize every format.
+     */
+    public static final int HEADER_LENGTH = 12;
+
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF87_MAGIC = "GIF87a".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GIF89_MAGIC = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] HEIC_BRANDS = {"heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1"};
+
+    private final ContentType contentType;
+    private final boolean supportedByLychee;
+
+    ImageFormat(ContentType contentType, boolean supportedByLychee) {
+        this.contentType = contentType;
+        this.supportedByLychee = supportedByLychee;
+    }
+
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return true if Lychee accepts uploads of this format.
+     */
+    public boolean isSupportedByLychee() {
+        return supportedByLychee;
+    }
+
+    /**
+     * Recognizes the format of an image by its magic bytes.
+     * @param header the first bytes of the file, {@link #HEADER_LENGTH} are enough.
+     * @param length how many bytes of the array are valid.
+     * @return the format, or null if it is none of the known ones.
+     */
+    public static ImageFormat detect(byte[] header, int length) {
+        if (startsWith(header, length, 0, JPEG_MAGIC)) {
+            return JPEG;
+        }
+        if (startsWith(header, length, 0, PNG_MAGIC)) {
+            return PNG;
+        }
+        if (startsWith(header, length, 0, GIF87_MAGIC) || startsWith(header, length, 0, GIF89_MAGIC)) {
+            return GIF;
+        }
+        if (startsWith(header, length, 0, "RIFF".getBytes(StandardCharsets.US_ASCII))
+                && startsWith(header, length, 8, "WEBP".getBytes(StandardCharsets.US_ASCII))) {
+            return WEBP;
+        }
+        if (startsWith(header, length, 4, "ftyp".getBytes(StandardCharsets.US_ASCII)) && length >= 12) {
+            String brand = new String(header, 8, 4, StandardCharsets.US_ASCII);
+            if (Arrays.asList(HEIC_BRANDS).contains(brand)) {
+                return HEIC;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, byte[] magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package at.schrer.lycheeupload.upload;
+
+/**
+ * Options for the {@link ImageTransformer}, which shrinks images before they are uploaded.
+ */
+public class ImageTransformOptions {
+
+    private int maxDimension = 0;
+    private float jpegQuality = 0.85f;
+    private boolean preserveExif = true;
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    /**
+     * @param maxDimension the maximum width and height of an uploaded image in pixels. Larger images are scaled down,
+     *                     keeping their aspect ratio. 0 disables scaling.
+     */
+    public void setMaxDimension(int maxDimension) {
+        if (maxDimension < 0) {
+            throw new IllegalArgumentException("The maximum dimension can't be negative.");
+        }
+        this.maxDimension = maxDimension;
+    }
+
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /**
+     * @param jpegQuality the quality used to write scaled JPEG images, between 0 and 1.
+     */
+    public void setJpegQuality(float jpegQuality) {
+        if (jpegQuality < 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("The JPEG quality has to be between 0 and 1.");
+        }
+        this.jpegQuality = jpegQuality;
+    }
+
+    public boolean isPreserveExif() {
+        return preserveExif;
+    }
+
+    /**
+     * @param preserveExif if true, the APP1 segments of a JPEG (EXIF and XMP) are copied to the scaled image. The color
+     *                     profile is never copied, as the scaled pixels are sRGB. If false EXIF and XMP are dropped and
+     *                     the image is rotated according to its EXIF orientation instead.
+     */
+    public void setPreserveExif(boolean preserveExif) {
+        this.preserveExif = preserveExif;
+    }
+}
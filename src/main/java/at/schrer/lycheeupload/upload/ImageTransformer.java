@@ -0,0 +1,419 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.entity.ContentType;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shrinks images before they are uploaded, see {@link ImageTransformOptions}. Decoding and encoding run on a separate
+ * pool of threads sized for CPU bound work, so the number of images held in memory at the same time stays bounded
+ * independently of the number of upload threads. The result is kept in memory and uploaded from there, no temporary files are written.
+ * <p>
+ * JPEG and PNG images larger than the maximum dimension are scaled down. GIF images are never changed, since that would lose animations.
+ * JPEG images that are small enough are only rewritten if EXIF data has to be removed, which is done without recompressing where possible.
+ */
+public class ImageTransformer implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageTransformer.class.getName());
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP13 = 0xED;
+    private static final int MARKER_COM = 0xFE;
+
+    private final ImageTransformOptions options;
+    private final ExecutorService workers;
+
+    /**
+     * Creates a transformer with one thread per available processor.
+     * @param options the options for all images.
+     */
+    public ImageTransformer(ImageTransformOptions options) {
+        this(options, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param options the options for all images.
+     * @param threads the number of images transformed at the same time.
+     */
+    public ImageTransformer(ImageTransformOptions options, int threads) {
+        this.options = options;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "image-transformer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ImageTransformOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Transforms an image on the transformer's threads and waits for the result.
+     * @param file the image.
+     * @return the transformed image, or null if the original file should be uploaded unchanged.
+     * @throws IOException if the file can't be read.
+     */
+    public byte[] transform(Path file) throws IOException {
+        Future<byte[]> result = workers.submit(() -> transformNow(file));
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to transform " + file, e.getCause());
+        }
+    }
+
+    /**
+     * Transforms an image on the transformer's threads.
+     * @param file the image.
+     * @return a future with the transformed image, or null if the original file should be uploaded unchanged.
+     */
+    public CompletableFuture<byte[]> transformAsync(Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return transformNow(file);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, workers);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private byte[] transformNow(Path file) throws IOException {
+        ContentType type = LycheeUploaderHttp.getImageContentType(file.getFileName().toString());
+        if (type == null || ContentType.IMAGE_GIF.equals(type)) {
+            return null;
+        }
+        boolean jpeg = ContentType.IMAGE_JPEG.equals(type);
+
+        List<byte[]> segments = jpeg ? readJpegHeaderSegments(file) : new ArrayList<>();
+        int orientation = jpeg ? exifOrientation(segments) : 1;
+        boolean stripMetadata = jpeg && !options.isPreserveExif() && hasStrippableSegment(segments);
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int maxDimension = options.getMaxDimension();
+                boolean scale = maxDimension > 0 && Math.max(width, height) > maxDimension;
+
+                if (!scale && !stripMetadata) {
+                    return null;
+                }
+                if (!scale && orientation == 1) {
+                    return stripJpegMetadata(file);
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (scale) {
+                    // Let the decoder skip pixels, so a large original never has to be held in memory completely
+                    int subsampling = Math.max(1, Math.max(width, height) / (2 * maxDimension));
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage image = reader.read(0, param);
+
+                if (scale) {
+                    double factor = (double) maxDimension / Math.max(width, height);
+                    image = scale(image, Math.max(1, (int) Math.round(width * factor)), Math.max(1, (int) Math.round(height * factor)));
+                }
+
+                if (!jpeg) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ImageIO.write(image, "png", out);
+                    return out.toByteArray();
+                }
+
+                if (!options.isPreserveExif()) {
+                    // The orientation tag is dropped with the EXIF data, so the pixels have to be turned instead
+                    image = orient(image, orientation);
+                }
+
+                byte[] encoded = encodeJpeg(image);
+                return options.isPreserveExif() ? replaceApp0(encoded, preservedSegments(segments)) : encoded;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IIOException e) {
+            // e.g. CMYK JPEGs, which ImageIO can't decode. The server can still handle the original.
+            LOGGER.log(Level.INFO, "Unable to transform " + file + ", uploading original.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Scales an image down in steps of at most half the size, which keeps bilinear interpolation from skipping pixels.
+     */
+    private static BufferedImage scale(BufferedImage image, int targetWidth, int targetHeight) {
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage step = new BufferedImage(width, height, imageType(image));
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+    /**
+     * Applies an EXIF orientation to the pixels.
+     */
+    private static BufferedImage orient(BufferedImage image, int orientation) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform transform;
+
+        switch (orientation) {
+            case 2: transform = new AffineTransform(-1, 0, 0, 1, w, 0); break;
+            case 3: transform = new AffineTransform(-1, 0, 0, -1, w, h); break;
+            case 4: transform = new AffineTransform(1, 0, 0, -1, 0, h); break;
+            case 5: transform = new AffineTransform(0, 1, 1, 0, 0, 0); break;
+            case 6: transform = new AffineTransform(0, 1, -1, 0, h, 0); break;
+            case 7: transform = new AffineTransform(0, -1, -1, 0, h, w); break;
+            case 8: transform = new AffineTransform(0, -1, 1, 0, 0, w); break;
+            default: return image;
+        }
+
+        boolean swapped = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapped ? h : w, swapped ? w : h, imageType(image));
+        Graphics2D g = oriented.createGraphics();
+        g.drawImage(image, transform, null);
+        g.dispose();
+        return oriented;
+    }
+
+    private static int imageType(BufferedImage image) {
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(options.getJpegQuality());
+
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Removes EXIF, XMP, IPTC and comments from a JPEG without decoding it.
+     */
+    private static byte[] stripJpegMetadata(Path file) throws IOException {
+        byte[] original = Files.readAllBytes(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(original.length);
+        out.write(0xFF);
+        out.write(MARKER_SOI);
+
+        int position = 2;
+        while (position + 4 <= original.length && (original[position] & 0xFF) == 0xFF) {
+            int marker = original[position + 1] & 0xFF;
+            if (marker == MARKER_SOS) {
+                break;
+            }
+            int length = 2 + (((original[position + 2] & 0xFF) << 8) | (original[position + 3] & 0xFF));
+            if (!isStrippable(marker)) {
+                out.write(original, position, length);
+            }
+            position += length;
+        }
+
+        out.write(original, position, original.length - position);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the segments between the start of a JPEG and its first scan, each including marker and length.
+     */
+    private static List<byte[]> readJpegHeaderSegments(Path file) throws IOException {
+        List<byte[]> segments = new ArrayList<>();
+
+        try (InputStream fileIn = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn))) {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+                return segments;
+            }
+            while (true) {
+                int prefix = in.readUnsignedByte();
+                int marker = in.readUnsignedByte();
+                if (prefix != 0xFF || marker == MARKER_SOS) {
+                    break;
+                }
+                int length = in.readUnsignedShort();
+                byte[] segment = new byte[length + 2];
+                segment[0] = (byte) 0xFF;
+                segment[1] = (byte) marker;
+                segment[2] = (byte) (length >> 8);
+                segment[3] = (byte) length;
+                in.readFully(segment, 4, length - 2);
+                segments.add(segment);
+            }
+        } catch (EOFException e) {
+            // truncated file, use the segments found so far
+        }
+        return segments;
+    }
+
+    private static boolean isStrippable(int marker) {
+        return marker == MARKER_APP1 || marker == MARKER_APP13 || marker == MARKER_COM;
+    }
+
+    private static boolean hasStrippableSegment(List<byte[]> segments) {
+        for (byte[] segment : segments) {
+            if (isStrippable(segment[1] & 0xFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The ICC profile (APP2) is not kept: the pixels were converted to sRGB when they were drawn into the scaled image, so
+     * the profile of the original would make viewers shift the colours.
+     * @return the EXIF/XMP segments, which are worth keeping in a scaled copy.
+     */
+    private static List<byte[]> preservedSegments(List<byte[]> segments) {
+        List<byte[]> preserved = new ArrayList<>();
+        for (byte[] segment : segments) {
+            int marker = segment[1] & 0xFF;
+            if (marker == MARKER_APP1) {
+                preserved.add(segment);
+            }
+        }
+        return preserved;
+    }
+
+    /**
+     * Replaces the JFIF segment the JPEG writer puts after the start marker with the given segments.
+     */
+    private static byte[] replaceApp0(byte[] jpeg, List<byte[]> segments) {
+        if (segments.isEmpty()) {
+            return jpeg;
+        }
+
+        int rest = 2;
+        if ((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == MARKER_APP0) {
+            rest = 4 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + 64 * 1024);
+        out.write(jpeg, 0, 2);
+        for (byte[] segment : segments) {
+            out.write(segment, 0, segment.length);
+        }
+        out.write(jpeg, rest, jpeg.length - rest);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the orientation tag from the first IFD of the EXIF segment.
+     * @return the orientation from 1 to 8, 1 if there is none.
+     */
+    private static int exifOrientation(List<byte[]> segments) {
+        for (byte[] segment : segments) {
+            if ((segment[1] & 0xFF) != MARKER_APP1 || segment.length < 4 + 6 + 8
+                    || segment[4] != 'E' || segment[5] != 'x' || segment[6] != 'i' || segment[7] != 'f') {
+                continue;
+            }
+
+            int tiff = 10;
+            boolean littleEndian = segment[tiff] == 'I';
+            int ifd = tiff + readInt(segment, tiff + 4, littleEndian);
+            if (ifd + 2 > segment.length) {
+                return 1;
+            }
+
+            int entries = readShort(segment, ifd, littleEndian);
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + 12 * i;
+                if (entry + 12 > segment.length) {
+                    return 1;
+                }
+                if (readShort(segment, entry, littleEndian) == 0x0112) {
+                    int orientation = readShort(segment, entry + 8, littleEndian);
+                    return (orientation >= 1 && orientation <= 8) ? orientation : 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, offset + (littleEndian ? 2 : 0), littleEndian);
+        int low = readShort(data, offset + (littleEndian ? 0 : 2), littleEndian);
+        return (high << 16) | low;
+    }
+}
@@ -0,0 +1,398 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DefaultCookieSpec;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests with the JDK HTTP client. It uses HTTP/2 if the server supports it, over TLS or as an upgrade of a plain
+ * connection, and then multiplexes all concurrent uploads and album requests over one connection. Other servers are
+ * talked to over HTTP/1.1.
+ * <p>
+ * Cookies are matched and parsed with the same cookie specification as the Apache client uses, so sessions can be stored
+ * and reused independent of the transport.
+ */
+public class JdkHttpTransport implements Transport {
+
+    private static final Logger LOGGER = Logger.getLogger(JdkHttpTransport.class.getName());
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUED_CHUNKS = 4;
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final Duration responseTimeout;
+    private final CookieSpec cookieSpec = new DefaultCookieSpec();
+
+    /**
+     * @param connectionSettings the connect timeout is used for new connections. The socket timeout limits the time without
+     *                           progress: while sending a request body, and until the response headers arrive after it.
+     *                           Pool sizes don't apply, as one HTTP/2 connection carries all requests.
+     */
+    public JdkHttpTransport(ConnectionSettings connectionSettings) {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "lychee-http2");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectionSettings.getConnectTimeoutMillis()))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+        this.responseTimeout = Duration.ofMillis(connectionSettings.getSocketTimeoutMillis());
+    }
+
+    @Override
+    public CloseableHttpResponse post(String url, HttpEntity body, CookieStore cookies) throws IOException {
+        URI uri = URI.create(url);
+        CookieOrigin origin = cookieOrigin(uri);
+
+        // No request timeout: the client would count the time to send the whole body against it, so a large upload
+        // over a slow or rate limited connection would fail. Progress of the body is watched instead.
+        BodyProgress progress = new BodyProgress();
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .POST(bodyPublisher(body, progress));
+        if (body.getContentType() != null) {
+            request.header("Content-Type", body.getContentType().getValue());
+        }
+        addCookieHeaders(request, cookies, origin);
+
+        CompletableFuture<HttpResponse<InputStream>> pending =
+                httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        HttpResponse<InputStream> response = awaitResponse(pending, progress);
+        storeCookies(response, cookies, origin);
+        return new JdkResponse(response);
+    }
+
+    @Override
+    public CloseableHttpResponse get(String url, CookieStore cookies) throws IOException {
+        URI uri = URI.create(url);
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(responseTimeout)
+                .GET();
+        return send(request, cookies, cookieOrigin(uri));
+    }
+
+    @Override
+    public void close() {
+        // The client has no close method before Java 21, its connections end with its daemon threads
+        executor.shutdownNow();
+    }
+
+    private CloseableHttpResponse send(HttpRequest.Builder request, CookieStore cookies, CookieOrigin origin) throws IOException {
+        addCookieHeaders(request, cookies, origin);
+
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (HttpConnectTimeoutException e) {
+            throw e;
+        } catch (HttpTimeoutException e) {
+            // Reported like a read timeout of the Apache client, so retries and the upload limiter treat it as overload
+            SocketTimeoutException timeout = new SocketTimeoutException(e.getMessage());
+            timeout.initCause(e);
+            throw timeout;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response.");
+        }
+
+        storeCookies(response, cookies, origin);
+        return new JdkResponse(response);
+    }
+
+    /**
+     * Waits for the response to a request with a body. It fails once neither the body made progress nor the response
+     * arrived for the socket timeout, like a read timeout of the Apache client.
+     */
+    private HttpResponse<InputStream> awaitResponse(CompletableFuture<HttpResponse<InputStream>> pending, BodyProgress progress)
+            throws IOException {
+        long timeoutMillis = responseTimeout.toMillis();
+        try {
+            while (true) {
+                long idleMillis = progress.getIdleMillis();
+                if (idleMillis >= timeoutMillis) {
+                    pending.cancel(true);
+                    throw new SocketTimeoutException("No progress sending the request or receiving the response for "
+                            + idleMillis + " ms.");
+                }
+                try {
+                    return pending.get(timeoutMillis - idleMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the progress again
+                }
+            }
+        } catch (InterruptedException e) {
+            pending.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request failed: " + cause, cause);
+        }
+    }
+
+    private void addCookieHeaders(HttpRequest.Builder request, CookieStore cookies, CookieOrigin origin) {
+        for (Header header : cookieHeaders(cookies, origin)) {
+            request.header(header.getName(), header.getValue());
+        }
+    }
+
+    private List<Header> cookieHeaders(CookieStore cookies, CookieOrigin origin) {
+        Date now = new Date();
+        List<Cookie> matching = new ArrayList<>();
+        for (Cookie cookie : cookies.getCookies()) {
+            if (!cookie.isExpired(now) && cookieSpec.match(cookie, origin)) {
+                matching.add(cookie);
+            }
+        }
+        return matching.isEmpty() ? new ArrayList<>() : cookieSpec.formatCookies(matching);
+    }
+
+    private void storeCookies(HttpResponse<?> response, CookieStore cookies, CookieOrigin origin) {
+        for (String value : response.headers().allValues("Set-Cookie")) {
+            try {
+                for (Cookie cookie : cookieSpec.parse(new BasicHeader("Set-Cookie", value), origin)) {
+                    cookieSpec.validate(cookie, origin);
+                    cookies.addCookie(cookie);
+                }
+            } catch (MalformedCookieException e) {
+                LOGGER.log(Level.FINE, "Ignoring cookie: " + value, e);
+            }
+        }
+    }
+
+    private static CookieOrigin cookieOrigin(URI uri) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = (uri.getPort() >= 0) ? uri.getPort() : (secure ? 443 : 80);
+        String path = (uri.getPath() == null || uri.getPath().isEmpty()) ? "/" : uri.getPath();
+        return new CookieOrigin(uri.getHost(), port, path, secure);
+    }
+
+    /**
+     * Streams the entity to the client: it is written on a separate thread into a small queue of chunks, which the client
+     * reads from. The content length is kept, as PHP does not accept chunked uploads everywhere.
+     */
+    private HttpRequest.BodyPublisher bodyPublisher(HttpEntity entity, BodyProgress progress) {
+        HttpRequest.BodyPublisher stream = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            EntityInputStream in = new EntityInputStream(responseTimeout.toMillis(), progress);
+            executor.execute(() -> in.writeFrom(entity));
+            return in;
+        });
+        long length = entity.getContentLength();
+        return (length < 0) ? stream : HttpRequest.BodyPublishers.fromPublisher(stream, length);
+    }
+
+    /**
+     * The time of the last chunk of a request body the client took, or of the end of the body.
+     */
+    private static class BodyProgress {
+
+        private volatile long lastProgressNanos = System.nanoTime();
+
+        private void update() {
+            lastProgressNanos = System.nanoTime();
+        }
+
+        private long getIdleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgressNanos);
+        }
+    }
+
+    /**
+     * The receiving end of an entity that is being written by another thread.
+     */
+    private static class EntityInputStream extends InputStream {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        private final long timeoutMillis;
+        private final BodyProgress progress;
+        private volatile IOException failure;
+        private volatile boolean closed = false;
+        private byte[] current;
+        private int position;
+
+        private EntityInputStream(long timeoutMillis, BodyProgress progress) {
+            this.timeoutMillis = timeoutMillis;
+            this.progress = progress;
+        }
+
+        private void writeFrom(HttpEntity entity) {
+            try {
+                OutputStream out = new OutputStream() {
+                    private final byte[] buffer = new byte[CHUNK_SIZE];
+                    private int count = 0;
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        buffer[count++] = (byte) b;
+                        if (count == buffer.length) {
+                            flush();
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        while (len > 0) {
+                            int copy = Math.min(len, buffer.length - count);
+                            System.arraycopy(b, off, buffer, count, copy);
+                            count += copy;
+                            off += copy;
+                            len -= copy;
+                            if (count == buffer.length) {
+                                flush();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if (count > 0) {
+                            put(Arrays.copyOf(buffer, count));
+                            count = 0;
+                        }
+                    }
+                };
+                entity.writeTo(out);
+                // writeTo does not necessarily flush
+                out.flush();
+                put(END);
+            } catch (IOException e) {
+                failure = e;
+                try {
+                    put(END);
+                } catch (IOException ignored) {
+                    // Nobody reads anymore
+                }
+            }
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                long waited = 0;
+                while (!chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    waited += 1000;
+                    if (closed || waited > timeoutMillis) {
+                        throw new IOException("The request body is no longer being sent.");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the request body.");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return (read < 0) ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == null || position == current.length) {
+                try {
+                    current = (current == END) ? END : chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading the request body.");
+                }
+                position = 0;
+                progress.update();
+                if (current == END) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return -1;
+                }
+            }
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Presents a response of the JDK client like one of the Apache client.
+     */
+    private static class JdkResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private final InputStream body;
+
+        private JdkResponse(HttpResponse<InputStream> response) {
+            super(new BasicStatusLine(protocolVersion(response.version()), response.statusCode(), ""));
+            this.body = response.body();
+
+            response.headers().map().forEach((name, values) -> values.forEach(value -> addHeader(name, value)));
+
+            InputStreamEntity entity = new InputStreamEntity(body, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+            response.headers().firstValue("Content-Type").ifPresent(entity::setContentType);
+            setEntity(entity);
+        }
+
+        private static ProtocolVersion protocolVersion(HttpClient.Version version) {
+            return (version == HttpClient.Version.HTTP_2) ? new ProtocolVersion("HTTP", 2, 0) : new ProtocolVersion("HTTP", 1, 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A non-blocking counterpart to {@link LycheeUploaderHttp}, backed by the JDK HTTP client.
+ * None of the methods block the calling thread, results and errors are delivered through the returned futures.
+ * Errors are the same exceptions {@link LycheeUploaderHttp} throws, wrapped in a {@link CompletionException}.
+ */
+public class LycheeUploaderAsync {
+
+    private final HttpClient httpClient;
+    private final URI endpoint;
+
+    private LycheeUploaderAsync(String serverAddress) {
+        // Remove trailing slashes from the server address
+        this.endpoint = URI.create(serverAddress.replaceAll("/+$","") + "/php/index.php");
+        this.httpClient = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL))
+                .build();
+    }
+
+    /**
+     * Creates a new uploader and logs in with the given user/password combination.
+     * @param serverAddress the URL of the Lychee-installation.
+     * @param username the username for this Lychee-instance.
+     * @param password the password to the username.
+     * @return a future that completes with the logged in uploader, or exceptionally with an {@link AuthenticationException} if the login was rejected.
+     */
+    public static CompletableFuture<LycheeUploaderAsync> connect(String serverAddress, String username, String password) {
+        LycheeUploaderAsync uploader = new LycheeUploaderAsync(serverAddress);
+
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("function", "Session::login");
+        params.put("user", username);
+        params.put("password", password);
+
+        return uploader.runRequest(params).thenApply(body -> {
+            if (!"true".equals(body)) {
+                throw new CompletionException(new AuthenticationException("Unable to login. Response body: " + body));
+            }
+            return uploader;
+        });
+    }
+
+    /**
+     * Asynchronously gets the standard albums, see {@link LycheeUploaderHttp#getStandardAlbums()}.
+     * @return a future with the list of albums.
+     */
+    public CompletableFuture<List<Album>> getStandardAlbums() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("function", "Albums::get");
+
+        return runRequest(params).thenApply(body -> {
+            List<Album> albumList = new ArrayList<>();
+            AlbumStreamReader albums = new AlbumStreamReader(new StringReader(body));
+            while (albums.hasNext()) {
+                Album album = albums.next();
+                if (!album.isSmart()) {
+                    albumList.add(album);
+                }
+            }
+            return albumList;
+        });
+    }
+
+    /**
+     * Asynchronously uploads an image, see {@link LycheeUploaderHttp#uploadImage(String, String)}.
+     * The file is streamed from disk while it is being sent.
+     * @param albumId the ID of the album to which the image should be added.
+     * @param filePath the path to the image that should be uploaded.
+     * @return a future with the ID of the image after uploading.
+     */
+    public CompletableFuture<String> uploadImage(String albumId, String filePath) {
+        Path image = Paths.get(filePath);
+
+        if (!Files.isRegularFile(image)) {
+            return CompletableFuture.failedFuture(new IOException("Path does not point to a file."));
+        }
+
+        ContentType imageType = LycheeUploaderHttp.getImageContentType(image.getFileName().toString());
+        if (imageType == null) {
+            return CompletableFuture.failedFuture(new IOException("File is not an image of allowed types JPG,JPEG,GIF or PNG"));
+        }
+
+        MultipartBodyPublisher body = new MultipartBodyPublisher()
+                .addText("function", "Photo::add")
+                .addText("albumID", albumId)
+                .addFile("0", image, imageType.getMimeType());
+
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(endpoint)
+                    .header("Content-Type", body.getContentType())
+                    .POST(body.build())
+                    .build();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return send(request).thenApply(resBody -> {
+            if (!LycheeUploaderHttp.isInteger(resBody)) {
+                throw new CompletionException(new IOException("Could not upload picture. Server Response: " + resBody));
+            }
+            return resBody;
+        });
+    }
+
+    /**
+     * Asynchronously creates a new album, see {@link LycheeUploaderHttp#createAlbum(String)}.
+     * @param title the title of the new album
+     * @return a future with the ID of the new album.
+     */
+    public CompletableFuture<String> createAlbum(String title) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("function", "Album::add");
+        params.put("title", title);
+
+        return runRequest(params);
+    }
+
+    /**
+     * Asynchronously sets all access options for a given album, see {@link LycheeUploaderHttp#setAlbumAccess(String, String, boolean, boolean, boolean)}.
+     * @param albumID the album that shall be changed.
+     * @param password the password of the album, can be null or empty if no password shall be set.
+     * @param setDownloadable if set to true people can download the whole album or single pictures.
+     * @param setVisible if false, the album won't be displayed on the Lychee site, only people with a direct link can access it.
+     * @param setPublic needs to be true for users to see, otherwise only a logged in admin will see the album.
+     * @return a future that completes when the server has answered.
+     */
+    public CompletableFuture<Void> setAlbumAccess(String albumID, String password, boolean setDownloadable, boolean setVisible, boolean setPublic) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("function", "Album::setPublic");
+        params.put("albumID", albumID);
+        params.put("password", (password == null) ? "" : password);
+        params.put("downloadable", (setDownloadable) ? "1" : "0");
+        params.put("public", (setPublic) ? "1" : "0");
+        params.put("visible", (setVisible) ? "1" : "0");
+
+        return runRequest(params).thenApply(body -> null);
+    }
+
+    /**
+     * Creates a processor that uploads every path it receives into the given album and publishes an {@link UploadResult} for each.
+     * At most maxInFlight uploads run at the same time and new paths are only requested from the upstream publisher when an upload finished,
+     * so a producer using e.g. a {@link java.util.concurrent.SubmissionPublisher} is slowed down to the pace of the server.
+     * @param albumId the ID of the album to which the images should be added.
+     * @param maxInFlight the maximum number of concurrent uploads.
+     * @return a new processor, to be subscribed to a publisher of paths.
+     */
+    public UploadProcessor uploadStream(String albumId, int maxInFlight) {
+        return new UploadProcessor(this, albumId, maxInFlight);
+    }
+
+    private CompletableFuture<String> runRequest(Map<String, String> params) {
+        StringBuilder form = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (form.length() > 0) {
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8));
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString(), StandardCharsets.UTF_8))
+                .build();
+
+        return send(request);
+    }
+
+    /**
+     * Sends a request and checks that the status code is in the range 200-299.
+     * @param request the request to send.
+     * @return a future with the trimmed response body.
+     */
+    private CompletableFuture<String> send(HttpRequest request) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> {
+                    int statusCode = response.statusCode();
+                    if (statusCode < 200 || statusCode > 299) {
+                        throw new CompletionException(new HttpResponseException(statusCode, "Statuscode is not 2xx."));
+                    }
+                    return response.body().trim();
+                });
+    }
+}
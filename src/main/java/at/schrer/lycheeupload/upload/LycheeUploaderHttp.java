@@ -1,35 +1,96 @@
 package at.schrer.lycheeupload.upload;
 
+import at.schrer.lycheeupload.metrics.RequestEvent;
+import at.schrer.lycheeupload.metrics.RequestListener;
+import at.schrer.lycheeupload.metrics.RequestMetrics;
+import at.schrer.lycheeupload.util.Checksums;
+import at.schrer.lycheeupload.util.SessionStore;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.fluent.Executor;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // TODO: choose consistent way of returning results. Preferably refrain from passing out JSON-objects since these are not native and just another dependency for bigger projects.
 // TODO: write missing documentation
-public class LycheeUploaderHttp {
+public class LycheeUploaderHttp implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(LycheeUploaderHttp.class.getName());
+
+    /**
+     * Beginnings of the answers Lychee gives to a guest calling a function that needs a login.
+     */
+    private static final String[] SESSION_REJECTED_MARKERS = {
+            "Error: No API function specified",
+            "Error: Function not found"
+    };
+
+    /**
+     * The name downloads of photo files are reported with to the {@link RequestListener}, they don't call an API function.
+     */
+    private static final String DOWNLOAD_FUNCTION = "download";
+    private static final long DOWNLOAD_CHUNK_SIZE = 1024 * 1024;
 
     private CookieStore cookieStore;
     private String serverAddress;
+    private Transport transport;
+    private boolean ownsTransport;
+    private volatile AlbumCache albumCache;
+    private volatile RequestListener requestListener = RequestListener.NONE;
+    private volatile AdaptiveLimiter uploadLimiter;
+    private volatile RetryPolicy retryPolicy;
+    private volatile BandwidthLimiter bandwidthLimiter;
+
+    private String username;
+    private String password;
+    private SessionStore sessionStore;
+    private volatile int sessionGeneration = 0;
+    private volatile boolean sessionVerified = false;
 
     /**
      * Creates a new Object of type LycheeUploaderHttp. Since the login process is done during instantiation (because most other functions can't be used without being logged in on the Lychee server),
@@ -41,24 +102,312 @@ public class LycheeUploaderHttp {
      * @throws AuthenticationException if username and password are wrong or some other error like an internal server error occur (status other than 200 gets returned).
      */
     public LycheeUploaderHttp(String serverAddress, String username, String password) throws IOException, AuthenticationException {
+        this(serverAddress, username, password, new ConnectionSettings());
+    }
+
+    /**
+     * Creates a new Object of type LycheeUploaderHttp with its own pooled HTTP client, configured by the given settings.
+     * The HTTP client is closed together with this object in {@link #close()}. Which client is used is chosen by
+     * {@link ConnectionSettings#getTransport()}.
+     * @param serverAddress the URL of the Lychee-installation.
+     * @param username the username for this Lychee-instance.
+     * @param password the password to the username.
+     * @param connectionSettings the settings for the connection pool.
+     * @throws IOException if an error occurs on the connection level while querying the server for login.
+     * @throws AuthenticationException if username and password are wrong or some other error like an internal server error occur (status other than 200 gets returned).
+     */
+    public LycheeUploaderHttp(String serverAddress, String username, String password, ConnectionSettings connectionSettings) throws IOException, AuthenticationException {
+        this(serverAddress, username, password, connectionSettings.createTransport(), true, null);
+    }
+
+    /**
+     * Creates a new Object of type LycheeUploaderHttp that uses a shared HTTP client, e.g. one created by {@link ConnectionSettings#createHttpClient()}.
+     * The session of this object is kept separately from other users of the client. The client is not closed by {@link #close()}.
+     * @param serverAddress the URL of the Lychee-installation.
+     * @param username the username for this Lychee-instance.
+     * @param password the password to the username.
+     * @param sharedHttpClient the HTTP client to send requests with.
+     * @throws IOException if an error occurs on the connection level while querying the server for login.
+     * @throws AuthenticationException if username and password are wrong or some other error like an internal server error occur (status other than 200 gets returned).
+     */
+    public LycheeUploaderHttp(String serverAddress, String username, String password, CloseableHttpClient sharedHttpClient) throws IOException, AuthenticationException {
+        this(serverAddress, username, password, new ApacheTransport(sharedHttpClient, false), false, null);
+    }
+
+    /**
+     * Creates a new Object of type LycheeUploaderHttp that sends its requests with a shared transport, e.g. one created by
+     * {@link ConnectionSettings#createTransport()}. The session of this object is kept separately from other users of the
+     * transport. The transport is not closed by {@link #close()}.
+     * @param serverAddress the URL of the Lychee-installation.
+     * @param username the username for this Lychee-instance.
+     * @param password the password to the username.
+     * @param sharedTransport the transport to send requests with.
+     * @throws IOException if an error occurs on the connection level while querying the server for login.
+     * @throws AuthenticationException if username and password are wrong or some other error like an internal server error occur (status other than 200 gets returned).
+     */
+    public LycheeUploaderHttp(String serverAddress, String username, String password, Transport sharedTransport) throws IOException, AuthenticationException {
+        this(serverAddress, username, password, sharedTransport, false, null);
+    }
+
+    /**
+     * Creates a new Object of type LycheeUploaderHttp that reuses the session stored in a file by an earlier instance, instead of logging in.
+     * If there is no stored session for this server and user, the login is done during instantiation and the new session is stored.
+     * Whenever the server rejects the session, this object logs in again and retries the request. The current session is stored again on {@link #close()}.
+     * @param serverAddress the URL of the Lychee-installation.
+     * @param username the username for this Lychee-instance.
+     * @param password the password to the username.
+     * @param connectionSettings the settings for the connection pool.
+     * @param sessionFile the file the session cookies are stored in, readable only by the owner.
+     * @throws IOException if an error occurs on the connection level while querying the server for login.
+     * @throws AuthenticationException if username and password are wrong or some other error like an internal server error occur (status other than 200 gets returned).
+     */
+    public LycheeUploaderHttp(String serverAddress, String username, String password, ConnectionSettings connectionSettings, Path sessionFile) throws IOException, AuthenticationException {
+        this(serverAddress, username, password, connectionSettings.createTransport(), true, new SessionStore(sessionFile));
+    }
+
+    private LycheeUploaderHttp(String serverAddress, String username, String password, Transport transport, boolean ownsTransport, SessionStore sessionStore) throws IOException, AuthenticationException {
 
         // Remove trailing slashes from the server address
         this.serverAddress = serverAddress.replaceAll("/+$","");
 
         this.cookieStore = new BasicCookieStore();
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.username = username;
+        this.password = password;
+        this.sessionStore = sessionStore;
+
+        if (sessionStore != null && sessionStore.load(this.serverAddress, username, cookieStore)) {
+            // The stored session is checked by the first request that needs it
+            return;
+        }
+
+        try {
+            this.authenticate(username,password);
+        } catch (IOException | AuthenticationException e) {
+            if (ownsTransport) {
+                transport.close();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * Enables caching of the album list for {@link #getStandardAlbums()}, {@link #findAlbumById(String)} and {@link #findAlbumByName(String)}.
+     * Albums created or changed through this object update the cache, changes made by others are only seen after the cache expired.
+     * @param albumCache the cache to use, or null to disable caching.
+     */
+    public void setAlbumCache(AlbumCache albumCache) {
+        this.albumCache = albumCache;
+    }
+
+    public AlbumCache getAlbumCache() {
+        return albumCache;
+    }
+
+    /**
+     * Sets a listener that gets notified about every request sent to the server, e.g. a {@link RequestMetrics}.
+     * @param requestListener the listener, or null to stop notifying.
+     */
+    public void setRequestListener(RequestListener requestListener) {
+        this.requestListener = (requestListener == null) ? RequestListener.NONE : requestListener;
+    }
+
+    public RequestListener getRequestListener() {
+        return requestListener;
+    }
 
-        this.authenticate(username,password);
+    /**
+     * Limits the number of concurrent uploads with a limit that adapts to the latency and errors of the server.
+     * Useful with a {@link BulkUploader} that has more threads than the server can usually handle.
+     * @param uploadLimiter the limiter, or null to send uploads as soon as they are started.
+     */
+    public void setUploadLimiter(AdaptiveLimiter uploadLimiter) {
+        this.uploadLimiter = uploadLimiter;
     }
 
+    public AdaptiveLimiter getUploadLimiter() {
+        return uploadLimiter;
+    }
+
+    /**
+     * Repeats uploads the server turned away because it was overloaded (429, 503) and uploads that could not connect.
+     * Uploads that timed out or lost the connection while waiting for the answer are not repeated, the server may already
+     * have stored the image and a second attempt would add it to the album twice.
+     * @param retryPolicy the policy, or null to fail on the first error.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Limits the rate at which this uploader sends, in addition to the {@link BandwidthLimiter#global()} limit.
+     * The limiter may be shared by several uploaders.
+     * @param bandwidthLimiter the limiter, or null to only obey the global one.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
 
     public List<Album> getStandardAlbums() throws IOException {
+        List<Album> albumList = new ArrayList<>();
+
+        for (Album album : getAlbums()) {
+            if (!album.isSmart()) {
+                albumList.add(album);
+            }
+        }
+
+        return albumList;
+    }
+
+    /**
+     * Finds an album by its ID. Uses the album cache if it is enabled, otherwise the album list is fetched from the server.
+     * @param albumId the ID of the album.
+     * @return the album or null if there is no album with this ID.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public Album findAlbumById(String albumId) throws IOException {
+        AlbumCache cache = albumCache;
+        if (cache != null && cache.isFresh()) {
+            Album album = cache.getById(albumId);
+            if (album != null || cache.isFreshAndComplete()) {
+                return album;
+            }
+        }
+
+        for (Album album : loadAlbums()) {
+            if (album.getAlbumId().equals(albumId)) {
+                return album;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds an album by its title. Uses the album cache if it is enabled, otherwise the album list is fetched from the server.
+     * If several albums have the same title, the first one the server lists is returned.
+     * @param title the title of the album.
+     * @return the album or null if there is no album with this title.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public Album findAlbumByName(String title) throws IOException {
+        AlbumCache cache = albumCache;
+        if (cache != null && cache.isFresh()) {
+            Album album = cache.getByName(title);
+            if (album != null || cache.isFreshAndComplete()) {
+                return album;
+            }
+        }
+
+        for (Album album : loadAlbums()) {
+            if (album.getName().equals(title)) {
+                return album;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all albums, from the cache if it holds all of them and has not expired.
+     */
+    private List<Album> getAlbums() throws IOException {
+        AlbumCache cache = albumCache;
+        if (cache != null && cache.isFreshAndComplete()) {
+            return cache.getAll();
+        }
+        return loadAlbums();
+    }
+
+    /**
+     * Loads all albums from the server and refreshes the cache, if it is enabled.
+     */
+    private List<Album> loadAlbums() throws IOException {
+        int generation = sessionGeneration;
+        List<Album> albumList = readAlbums();
+
+        if (!sessionVerified) {
+            // Lychee only sends smart albums to logged in users, a guest gets the public albums
+            if (containsSmartAlbum(albumList)) {
+                sessionVerified = true;
+            } else {
+                renewSession(generation);
+                albumList = readAlbums();
+            }
+        }
+
+        AlbumCache cache = albumCache;
+        if (cache != null) {
+            cache.replaceAll(albumList);
+        }
+        return albumList;
+    }
+
+    /**
+     * Gets standard and smart albums from the server and decodes them one by one while the response is being received.
+     * The returned reader has to be closed, which releases the connection to the server.
+     * @return a reader over all albums.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public AlbumStreamReader streamAllAlbums() throws IOException {
+        if (!sessionVerified) {
+            // A guest gets the public albums instead of an error, which a streaming caller would not notice
+            renewSession(sessionGeneration);
+        }
+        return openAlbumStream();
+    }
+
+    private AlbumStreamReader openAlbumStream() throws IOException {
         List<NameValuePair> params = new ArrayList<>();
         params.add(new BasicNameValuePair("function", "Albums::get"));
-        HttpResponse res = runRequest(params);
 
-        this.checkStatusCode(res);
+        HttpEntity entity = createFormEntity(params);
+        RequestListener listener = requestListener;
+        listener.requestStarted("Albums::get");
+        long start = System.nanoTime();
+
+        CloseableHttpResponse res;
+        try {
+            res = openRequest(entity);
+        } catch (IOException e) {
+            long failedAt = System.nanoTime() - start;
+            listener.requestFinished(new RequestEvent("Albums::get", 0, entity.getContentLength(), -1, failedAt, failedAt, e));
+            throw e;
+        }
+        long responseNanos = System.nanoTime() - start;
+        int statusCode = res.getStatusLine().getStatusCode();
 
-        return responseToAlbumList(res);
+        try {
+            checkStatusCode(res);
+            // The request is reported when the caller is done reading, so the time covers the whole download
+            CountingInputStream content = new CountingInputStream(res.getEntity().getContent());
+            return new AlbumStreamReader(content) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        res.close();
+                        listener.requestFinished(new RequestEvent("Albums::get", statusCode, entity.getContentLength(), content.getByteCount(),
+                                responseNanos, System.nanoTime() - start, null));
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            res.close();
+            listener.requestFinished(new RequestEvent("Albums::get", statusCode, entity.getContentLength(), -1,
+                    responseNanos, System.nanoTime() - start, null));
+            throw e;
+        }
     }
 
     public JSONObject getSmartAlbums() throws IOException {
@@ -89,8 +438,176 @@ public class LycheeUploaderHttp {
 
     }
 
+    /**
+     * Loads the checksums Lychee stored for the photos of an album, e.g. to skip files that are already uploaded, see {@link ChecksumIndex}.
+     * Photos for which the server sends no checksum are left out.
+     * @param albumId the ID of the album.
+     * @return the photo IDs by SHA-1 checksum (lower case hex).
+     * @throws IOException if the album can't be loaded.
+     */
+    public Map<String, String> getPhotoChecksums(String albumId) throws IOException {
+        Map<String, String> checksums = new HashMap<>();
+        for (JSONObject photo : readAlbumPhotos(albumId)) {
+            String checksum = photo.optString("checksum", "");
+            if (!checksum.isEmpty()) {
+                checksums.putIfAbsent(checksum.toLowerCase(Locale.ROOT), photo.optString("id"));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Lists the photos of an album with the URLs of their original files, e.g. to download them, see {@link AlbumExporter}.
+     * Photos without an original file URL are left out.
+     * @param albumId the ID of the album, "0" for the unsorted photos.
+     * @return the photos in the order the server lists them.
+     * @throws IOException if the album can't be loaded.
+     */
+    public List<Photo> getPhotos(String albumId) throws IOException {
+        List<Photo> photos = new ArrayList<>();
+        for (JSONObject photo : readAlbumPhotos(albumId)) {
+            // Lychee 4 lists the files of a photo as size variants
+            JSONObject original = photo.optJSONObject("size_variants");
+            original = (original == null) ? null : original.optJSONObject("original");
+
+            String url = photo.optString("url", "");
+            if (url.isEmpty() && original != null) {
+                url = original.optString("url", "");
+            }
+            if (url.isEmpty()) {
+                continue;
+            }
+
+            String checksum = photo.optString("checksum", "");
+            long size = photo.optLong("filesize", (original == null) ? -1 : original.optLong("filesize", -1));
+            photos.add(new Photo(photo.optString("id"), photo.optString("title"), url,
+                    checksum.isEmpty() ? null : checksum.toLowerCase(Locale.ROOT), size));
+        }
+        return photos;
+    }
+
+    /**
+     * Downloads the original file of a photo. The response is streamed into the file as it arrives, so photos of any size
+     * take only a small buffer. The request is sent with the session of this uploader.
+     * @param photo the photo, as listed by {@link #getPhotos(String)}.
+     * @param target the file to write, it is replaced if it exists.
+     * @return the SHA-1 checksum of the downloaded data (lower case hex).
+     * @throws IOException if the download fails or ends before the length the server announced. The target may then
+     * hold part of the file.
+     */
+    public String downloadPhoto(Photo photo, Path target) throws IOException {
+        String url = photo.getUrl().matches("(?i)https?://.*")
+                ? photo.getUrl()
+                : serverAddress + (photo.getUrl().startsWith("/") ? "" : "/") + photo.getUrl();
+
+        RequestListener listener = requestListener;
+        listener.requestStarted(DOWNLOAD_FUNCTION);
+
+        long start = System.nanoTime();
+        long responseNanos = -1;
+        int statusCode = 0;
+        long bytesReceived = -1;
+
+        try (CloseableHttpResponse response = transport.get(url, this.cookieStore)) {
+            responseNanos = System.nanoTime() - start;
+            statusCode = response.getStatusLine().getStatusCode();
+            checkStatusCode(response);
+
+            MessageDigest digest = Checksums.newSha1();
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                bytesReceived = 0;
+                try (ReadableByteChannel in = Channels.newChannel(new DigestInputStream(entity.getContent(), digest));
+                     FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+                    // A blocking channel only transfers nothing at the end of the stream
+                    long transferred;
+                    while ((transferred = out.transferFrom(in, bytesReceived, DOWNLOAD_CHUNK_SIZE)) > 0) {
+                        bytesReceived += transferred;
+                    }
+                }
+                if (entity.getContentLength() >= 0 && bytesReceived != entity.getContentLength()) {
+                    throw new IOException("Download of " + url + " ended after " + bytesReceived + " of "
+                            + entity.getContentLength() + " bytes.");
+                }
+            } else {
+                Files.write(target, new byte[0]);
+            }
+
+            listener.requestFinished(new RequestEvent(DOWNLOAD_FUNCTION, statusCode, 0, bytesReceived,
+                    responseNanos, System.nanoTime() - start, null));
+            return Checksums.toHex(digest.digest());
+        } catch (IOException e) {
+            long failedAt = System.nanoTime() - start;
+            listener.requestFinished(new RequestEvent(DOWNLOAD_FUNCTION, statusCode, 0, bytesReceived,
+                    (responseNanos < 0) ? failedAt : responseNanos, failedAt, e));
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the photo objects of an album.
+     * @param albumId the ID of the album.
+     * @return the photos, empty for an empty album.
+     * @throws IOException if the album can't be loaded.
+     */
+    private List<JSONObject> readAlbumPhotos(String albumId) throws IOException {
+        HttpResponse response = getAlbumNameById(albumId);
+        checkStatusCode(response);
+
+        String body = getResponseBodyAsString(response);
+        if (!body.startsWith("{")) {
+            throw new IOException("Could not load album " + albumId + ". Server Response: " + body);
+        }
+
+        JSONObject album = new JSONObject(body);
+        List<JSONObject> photoList = new ArrayList<>();
+
+        // An empty album has "content":false, others a photo object per ID. Newer versions send a "photos" array.
+        JSONObject content = album.optJSONObject("content");
+        if (content != null) {
+            for (String key : content.keySet()) {
+                addPhoto(photoList, content.optJSONObject(key));
+            }
+        }
+        JSONArray photos = album.optJSONArray("photos");
+        if (photos != null) {
+            for (int i = 0; i < photos.length(); i++) {
+                addPhoto(photoList, photos.optJSONObject(i));
+            }
+        }
+        return photoList;
+    }
+
+    private static void addPhoto(List<JSONObject> photoList, JSONObject photo) {
+        if (photo != null) {
+            photoList.add(photo);
+        }
+    }
+
+    private List<Album> readAlbums() throws IOException {
+        List<Album> albumList = new ArrayList<>();
+
+        try (AlbumStreamReader albums = openAlbumStream()) {
+            albums.forEachRemaining(albumList::add);
+        } catch (JSONException e) {
+            throw new IOException("Unable to read album list.", e);
+        }
+        return albumList;
+    }
+
+    private static boolean containsSmartAlbum(List<Album> albums) {
+        for (Album album : albums) {
+            if (album.isSmart()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Uploads an image to the Lychee-Server. Allowed file endings are JPEG, JPG, PNG and GIF.
+     * The content has to match one of these formats too, which is checked before anything is sent.
      *
      * @param albumId the ID of the album to which the image should be added.
      * @param filePath the path to the image that should be uploaded.
@@ -99,43 +616,173 @@ public class LycheeUploaderHttp {
      */
     public String uploadImage(String albumId, String filePath) throws IOException {
 
-        File image = new File(filePath);
-        String fileName = image.getName();
+        Path image = Paths.get(filePath);
+        String fileName = image.getFileName().toString();
 
-        if(!image.isFile() ){
+        if(!Files.isRegularFile(image)){
             throw new IOException("Path does not point to a file.");
         }
 
-        ContentType imageType;
+        if (getImageContentType(fileName) == null) {
+            throw new IOException("File is not an image of allowed types JPG,JPEG,GIF or PNG");
+        }
 
-        if ( fileName.toLowerCase().endsWith("jpg") || fileName.toLowerCase().endsWith("jpeg") ) {
-            imageType = ContentType.IMAGE_JPEG;
-        } else if (fileName.toLowerCase().endsWith("png")){
-            imageType = ContentType.IMAGE_PNG;
-        } else if (fileName.toLowerCase().endsWith("gif")){
-            imageType = ContentType.IMAGE_GIF;
-        } else {
+        try (FileChannelBody body = FileChannelBody.open(image, filePath)) {
+            checkImageFormat(body.getFormat(), fileName);
+            return uploadImage(albumId, body);
+        }
+    }
+
+    /**
+     * Uploads an image that is already in memory, e.g. one that was scaled down by an {@link ImageTransformer}.
+     *
+     * @param albumId the ID of the album to which the image should be added.
+     * @param fileName the name of the image, its ending determines the type like for {@link #uploadImage(String, String)}.
+     * @param imageData the content of the image.
+     * @return the ID of the image after uploading.
+     * @throws IOException if the name is not one of an image or a server error occurs.
+     */
+    public String uploadImage(String albumId, String fileName, byte[] imageData) throws IOException {
+        if (getImageContentType(fileName) == null) {
             throw new IOException("File is not an image of allowed types JPG,JPEG,GIF or PNG");
         }
 
-        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        ImageFormat format = ImageFormat.detect(imageData, Math.min(imageData.length, ImageFormat.HEADER_LENGTH));
+        checkImageFormat(format, fileName);
 
-        builder.addTextBody("function","Photo::add");
-        builder.addTextBody("albumID",albumId);
-        builder.addBinaryBody("0", new File(filePath), imageType, filePath);
+        return uploadImage(albumId, new ByteArrayBody(imageData, format.getContentType(), fileName));
+    }
 
-        HttpResponse response = runRequest(builder.build());
+    /**
+     * Rejects content that is no image Lychee accepts, whatever the file name says.
+     */
+    private static void checkImageFormat(ImageFormat format, String fileName) throws IOException {
+        if (format == null) {
+            throw new IOException(fileName + " is not a JPEG, PNG or GIF image, or it is corrupt.");
+        }
+        if (!format.isSupportedByLychee()) {
+            throw new IOException(fileName + " is a " + format + " image, which Lychee does not accept.");
+        }
+    }
 
-        checkStatusCode(response);
+    private String uploadImage(String albumId, ContentBody image) throws IOException {
+        HttpEntity entity = createUploadEntity(albumId, image);
+        RetryPolicy retryPolicy = this.retryPolicy;
+
+        for (int retry = 0; ; retry++) {
+            try {
+                HttpResponse response = runLimitedRequest("Photo::add", entity);
+
+                checkStatusCode(response);
+
+                String resBody = getResponseBodyAsString(response);
+
+                if (isInteger(resBody)){
+                    return resBody;
+                } else {
+                    throw new IOException("Could not upload picture. Server Response: "+ resBody);
+                }
+            } catch (IOException e) {
+                if (retryPolicy == null || retry >= retryPolicy.getMaxRetries() || !isUnprocessed(e) || !entity.isRepeatable()) {
+                    throw e;
+                }
+                long delay = retryPolicy.getDelayMillis(retry);
+                LOGGER.log(Level.INFO, "Upload not processed by the server, retrying in " + delay + " ms: " + e.getMessage());
+                sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Runs a request within the limit of the upload limiter, if one is set, and reports its outcome to the limiter.
+     */
+    private HttpResponse runLimitedRequest(String function, HttpEntity entity) throws IOException {
+        AdaptiveLimiter limiter = uploadLimiter;
+        if (limiter == null) {
+            return runRequest(function, entity);
+        }
+
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload limiter.");
+        }
+
+        long start = System.nanoTime();
+        boolean overloaded = true;
+        try {
+            HttpResponse response = runRequest(function, entity);
+            overloaded = isOverloadStatus(response.getStatusLine().getStatusCode());
+            return response;
+        } catch (IOException e) {
+            overloaded = isOverload(e);
+            throw e;
+        } finally {
+            limiter.release(System.nanoTime() - start, overloaded);
+        }
+    }
+
+    /**
+     * Checks if a request failed because the server could not keep up: a 5xx or 429 answer, a timeout or a connection
+     * the server closed without answering. Waiting for a connection from the pool is not the server's fault.
+     */
+    private static boolean isOverload(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return isOverloadStatus(((HttpResponseException) e).getStatusCode());
+        }
+        if (e instanceof ConnectionPoolTimeoutException) {
+            return false;
+        }
+        return e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException || e instanceof NoHttpResponseException;
+    }
 
-        String resBody = getResponseBodyAsString(response);
+    private static boolean isOverloadStatus(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
 
-        if (isInteger(resBody)){
-            return resBody;
-        } else {
-            throw new IOException("Could not upload picture. Server Response: "+ resBody);
+    /**
+     * Checks if a request failed before the server processed it, so sending it again can't do anything twice: no connection
+     * could be opened or taken from the pool, or the server answered 429 or 503. A timeout or a connection closed while
+     * waiting for the answer may come after the server already did the work.
+     */
+    static boolean isUnprocessed(IOException e) {
+        if (e instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) e).getStatusCode();
+            return statusCode == 429 || statusCode == 503;
         }
+        return e instanceof ConnectTimeoutException || e instanceof ConnectException || e instanceof UnknownHostException
+                || e instanceof HttpConnectTimeoutException;
+    }
 
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry.");
+        }
+    }
+
+    /**
+     * Uploads several images to the same album concurrently, using the default settings of {@link BulkUploader}.
+     * Failed uploads don't abort the others, they are reported in the result.
+     *
+     * @param albumId the ID of the album to which the images should be added.
+     * @param files the paths to the images that should be uploaded.
+     * @return the image ID or the error for every file.
+     */
+    public UploadReport uploadAll(String albumId, Collection<Path> files) {
+        return new BulkUploader(this).uploadAll(albumId, files);
+    }
+
+    /**
+     * Checks if a file has one of the endings allowed by {@link #uploadImage(String, String)}.
+     * @param fileName the name of the file.
+     * @return true if the file can be uploaded.
+     */
+    public static boolean isSupportedImage(String fileName) {
+        return getImageContentType(fileName) != null;
     }
 
 
@@ -154,7 +801,14 @@ public class LycheeUploaderHttp {
 
         checkStatusCode(response);
 
-        return getResponseBodyAsString(response);
+        String albumId = getResponseBodyAsString(response);
+
+        AlbumCache cache = albumCache;
+        if (cache != null && isInteger(albumId)) {
+            cache.put(new Album(albumId, title, false));
+        }
+
+        return albumId;
     }
 
     /**
@@ -178,6 +832,78 @@ public class LycheeUploaderHttp {
 
         HttpResponse response = runRequest(params);
         checkStatusCode(response);
+
+        AlbumCache cache = albumCache;
+        if (cache != null) {
+            Album album = cache.getById(albumID);
+            if (album != null) {
+                cache.put(new Album(albumID, album.getName(), password != null && !password.isEmpty(), album.isSmart()));
+            }
+        }
+    }
+
+    /**
+     * Moves photos into an album with one request. To collect many changes and send them together see {@link PhotoBatch}.
+     * @param photoIds the IDs of the photos.
+     * @param albumId the ID of the album, "0" for unsorted.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public void movePhotos(Collection<String> photoIds, String albumId) throws IOException {
+        setPhotoProperty("Photo::setAlbum", photoIds, "albumID", albumId);
+    }
+
+    /**
+     * Replaces the tags of photos with one request.
+     * @param photoIds the IDs of the photos.
+     * @param tags the tags, separated by commas, or an empty string to remove all tags.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public void setPhotoTags(Collection<String> photoIds, String tags) throws IOException {
+        setPhotoProperty("Photo::setTags", photoIds, "tags", tags);
+    }
+
+    /**
+     * Sets the title of photos with one request.
+     * @param photoIds the IDs of the photos.
+     * @param title the title.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public void setPhotoTitle(Collection<String> photoIds, String title) throws IOException {
+        setPhotoProperty("Photo::setTitle", photoIds, "title", title);
+    }
+
+    /**
+     * Stars photos that are not starred and removes the star of the others, with one request. Lychee only offers toggling.
+     * @param photoIds the IDs of the photos.
+     * @throws IOException if an error occurs while processing the request.
+     */
+    public void toggleStar(Collection<String> photoIds) throws IOException {
+        setPhotoProperty("Photo::setStar", photoIds, null, null);
+    }
+
+    /**
+     * Changes photos with a function that takes a comma separated list of photo IDs.
+     * @param valueName the name of the parameter with the new value, or null if the function takes no value.
+     */
+    private void setPhotoProperty(String function, Collection<String> photoIds, String valueName, String value) throws IOException {
+        if (photoIds.isEmpty()) {
+            return;
+        }
+
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("function", function));
+        params.add(new BasicNameValuePair("photoIDs", String.join(",", photoIds)));
+        if (valueName != null) {
+            params.add(new BasicNameValuePair(valueName, value));
+        }
+
+        HttpResponse response = runRequest(params);
+        checkStatusCode(response);
+
+        String body = getResponseBodyAsString(response);
+        if (!"true".equals(body)) {
+            throw new IOException("Could not change " + photoIds.size() + " photos with " + function + ". Server Response: " + body);
+        }
     }
 
     /**
@@ -192,7 +918,9 @@ public class LycheeUploaderHttp {
         params.add(new BasicNameValuePair("function", "Session::login"));
         params.add(new BasicNameValuePair("user", username));
         params.add(new BasicNameValuePair("password", password));
-        HttpResponse res = runRequest(params);
+
+        cookieStore.clear();
+        HttpResponse res = executeRequest("Session::login", createFormEntity(params));
 
 
         String body = getResponseBodyAsString(res);
@@ -203,20 +931,132 @@ public class LycheeUploaderHttp {
         if(!"true".equals(body)){
             throw new AuthenticationException("Unable to login. Statuscode: "+statusCode+"; Response body: "+body);
         }
+
+        sessionVerified = true;
+        saveSession();
+    }
+
+    /**
+     * Logs in again, unless another thread already did so since the given session generation was current.
+     * @param generation the session generation a request was sent with.
+     * @throws IOException if logging in fails.
+     */
+    private synchronized void renewSession(int generation) throws IOException {
+        if (generation != sessionGeneration) {
+            return;
+        }
+        try {
+            authenticate(username, password);
+        } catch (AuthenticationException e) {
+            throw new IOException("Session was rejected and logging in again failed.", e);
+        }
+        sessionGeneration++;
+    }
+
+    private void saveSession() {
+        if (sessionStore == null) {
+            return;
+        }
+        try {
+            sessionStore.save(serverAddress, username, cookieStore);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to store session in " + sessionStore.getSessionFile(), e);
+        }
+    }
+
+    /**
+     * Checks if the server answered as to a guest, which means the session has expired or was never valid.
+     * @param response a buffered response.
+     * @return true if the request has to be repeated after logging in.
+     */
+    private boolean isSessionRejected(HttpResponse response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == 401 || statusCode == 419) {
+            return true;
+        }
+        if (response.getEntity() == null) {
+            return false;
+        }
+        String body = getResponseBodyAsString(response);
+        for (String marker : SESSION_REJECTED_MARKERS) {
+            if (body.startsWith(marker)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Runs a request to the Lychee-server
+     * @param function the Lychee API function of the request, as reported to the {@link RequestListener}.
      * @param entity the HTTPEntity containing the request parameters.
      * @return the HttpResponse of the Lychee server.
      * @throws IOException if an error occurs while sending/receiving to/from the server.
      */
-    private HttpResponse runRequest(HttpEntity entity) throws IOException {
+    private HttpResponse runRequest(String function, HttpEntity entity) throws IOException {
+        int generation = sessionGeneration;
+        HttpResponse response = executeRequest(function, entity);
+
+        if (isSessionRejected(response) && entity.isRepeatable()) {
+            renewSession(generation);
+            response = executeRequest(function, entity);
+        }
+        return response;
+    }
+
+    /**
+     * Sends a request to the Lychee-server and receives the whole response.
+     * @param function the Lychee API function of the request, as reported to the {@link RequestListener}.
+     * @param entity the HTTPEntity containing the request parameters.
+     * @return the HttpResponse of the Lychee server, with a repeatable body.
+     * @throws IOException if an error occurs while sending/receiving to/from the server.
+     */
+    private HttpResponse executeRequest(String function, HttpEntity entity) throws IOException {
+        RequestListener listener = requestListener;
+        listener.requestStarted(function);
+
+        long start = System.nanoTime();
+        long responseNanos = -1;
+        int statusCode = 0;
+
+        // Buffer the body so the connection goes back to the pool before the response gets processed
+        try (CloseableHttpResponse response = openRequest(entity)) {
+            responseNanos = System.nanoTime() - start;
+            statusCode = response.getStatusLine().getStatusCode();
+
+            long bytesReceived = 0;
+            if (response.getEntity() != null) {
+                response.setEntity(new BufferedHttpEntity(response.getEntity()));
+                bytesReceived = response.getEntity().getContentLength();
+            }
+
+            listener.requestFinished(new RequestEvent(function, statusCode, entity.getContentLength(), bytesReceived,
+                    responseNanos, System.nanoTime() - start, null));
+            return response;
+        } catch (IOException e) {
+            long failedAt = System.nanoTime() - start;
+            listener.requestFinished(new RequestEvent(function, statusCode, entity.getContentLength(), -1,
+                    (responseNanos < 0) ? failedAt : responseNanos, failedAt, e));
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request to the Lychee-server without reading the response body.
+     * The response has to be closed by the caller to release the connection.
+     * @param entity the HTTPEntity containing the request parameters.
+     * @return the HttpResponse of the Lychee server, with the body not yet received.
+     * @throws IOException if an error occurs while sending/receiving to/from the server.
+     */
+    private CloseableHttpResponse openRequest(HttpEntity entity) throws IOException {
         String url = serverAddress+"/php/index.php";
 
-        Executor executor = Executor.newInstance();
-        Request req = Request.Post(url).body(entity);
-        return executor.use(this.cookieStore).execute(req).returnResponse();
+        BandwidthLimiter limiter = bandwidthLimiter;
+        HttpEntity throttled = (limiter == null)
+                ? new ThrottledEntity(entity, BandwidthLimiter.global())
+                : new ThrottledEntity(entity, BandwidthLimiter.global(), limiter);
+
+        return transport.post(url, throttled, this.cookieStore);
     }
 
     /**
@@ -226,8 +1066,38 @@ public class LycheeUploaderHttp {
      * @throws IOException if an error occurs while sending/receiving to/from the server.
      */
     private HttpResponse runRequest(List<NameValuePair> params) throws IOException {
-        UrlEncodedFormEntity urlEncParams = new UrlEncodedFormEntity(params, Charset.forName("UTF-8"));
-        return runRequest(urlEncParams);
+        String function = "unknown";
+        for (NameValuePair param : params) {
+            if ("function".equals(param.getName())) {
+                function = param.getValue();
+            }
+        }
+        return runRequest(function, createFormEntity(params));
+    }
+
+    /**
+     * Builds the body of a request that only has text parameters.
+     * @param params the request parameters, including the API function.
+     * @return a repeatable, URL encoded entity.
+     */
+    static HttpEntity createFormEntity(List<NameValuePair> params) {
+        return new UrlEncodedFormEntity(params, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Builds the multipart body of a Photo::add request.
+     * @param albumId the ID of the album to which the image should be added.
+     * @param image the image part.
+     * @return the entity, repeatable if the image part is.
+     */
+    static HttpEntity createUploadEntity(String albumId, ContentBody image) {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+
+        builder.addTextBody("function","Photo::add");
+        builder.addTextBody("albumID",albumId);
+        builder.addPart("0", image);
+
+        return builder.build();
     }
 
     private String getResponseBodyAsString(HttpResponse response) throws IOException {
@@ -252,39 +1122,44 @@ public class LycheeUploaderHttp {
 
 
     /**
-     * Converts an HTTPResponse to a list of Album objects.
-     *
-     * @param response the response to a call on the function "Albums::get"
-     * @return a list of Album objects
-     * @throws IOException If an error occurs during the server call.
+     * Stores the current session, if a session file is used, and releases the pooled connections of this uploader, if the transport was not shared.
+     * @throws IOException if an error occurs while closing the connections.
      */
-    private List<Album> responseToAlbumList(HttpResponse response) throws IOException {
-
-        JSONObject resJSON = getResponseBodyAsJSON(response);
+    @Override
+    public void close() throws IOException {
+        // The server may have refreshed the session cookies
+        saveSession();
 
-        JSONArray albumsArrray = resJSON.getJSONArray("albums");
-
-        List<Album> albumList = new LinkedList<>();
-
-        for (Object albumObj: albumsArrray ) {
-            JSONObject albumJSON = (JSONObject) albumObj;
-
-            boolean passwordProtected = !"0".equals(albumJSON.get("password"));
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
 
-            albumList.add(new Album(albumJSON.getString("id"),albumJSON.getString("title"),passwordProtected));
 
+    /**
+     * Determines the content type of an image by its file ending.
+     * @param fileName the name of the image file.
+     * @return the content type, or null if the file ending is not one of JPEG, JPG, PNG and GIF.
+     */
+    static ContentType getImageContentType(String fileName) {
+        String lowerCaseName = fileName.toLowerCase();
+
+        if ( lowerCaseName.endsWith("jpg") || lowerCaseName.endsWith("jpeg") ) {
+            return ContentType.IMAGE_JPEG;
+        } else if (lowerCaseName.endsWith("png")){
+            return ContentType.IMAGE_PNG;
+        } else if (lowerCaseName.endsWith("gif")){
+            return ContentType.IMAGE_GIF;
         }
-
-        return albumList;
+        return null;
     }
 
-
     /**
      * Checks if a String is an integer of base 10.
      * @param s the number to check.
      * @return true if the number is an integer, false otherwise.
      */
-    private static boolean isInteger(String s) {
+    public static boolean isInteger(String s) {
         int radix = 10;
 
         if(s == null || s.isEmpty()) return false;
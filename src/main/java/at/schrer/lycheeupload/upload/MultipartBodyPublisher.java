@@ -0,0 +1,152 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Builds a multipart/form-data body for the JDK HTTP client. Files are read in chunks while the body is being sent,
+ * so an upload never needs to hold the whole image in memory. The length of the body is computed up front, so it is not
+ * sent chunked, which not every PHP setup accepts.
+ */
+class MultipartBodyPublisher {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String boundary = "----LycheeUpload" + UUID.randomUUID().toString().replace("-", "");
+    private final List<Part> parts = new ArrayList<>();
+
+    MultipartBodyPublisher addText(String name, String value) {
+        parts.add(new Part(header(name, null, null) + value, null));
+        return this;
+    }
+
+    MultipartBodyPublisher addFile(String name, Path file, String contentType) {
+        parts.add(new Part(header(name, file.toString(), contentType), file));
+        return this;
+    }
+
+    String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * @return the publisher of the body, with its length.
+     * @throws IOException if the size of a file can't be read.
+     */
+    HttpRequest.BodyPublisher build() throws IOException {
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(this::chunks), contentLength());
+    }
+
+    /**
+     * Adds up the bytes {@link #chunks()} produces: every part with its header and line break, and the closing boundary.
+     */
+    private long contentLength() throws IOException {
+        long length = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII).length;
+        for (Part part : parts) {
+            length += part.header.getBytes(StandardCharsets.UTF_8).length + 2;
+            if (part.file != null) {
+                length += Files.size(part.file);
+            }
+        }
+        return length;
+    }
+
+    private String header(String name, String fileName, String contentType) {
+        StringBuilder header = new StringBuilder();
+        header.append("--").append(boundary).append("\r\n");
+        header.append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (fileName != null) {
+            header.append("; filename=\"").append(fileName.replace("\"", "%22")).append('"');
+        }
+        header.append("\r\n");
+        if (contentType != null) {
+            header.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        header.append("\r\n");
+        return header.toString();
+    }
+
+    /**
+     * Creates a new iterator over the body. Each call starts from the beginning, which allows the client to retry.
+     */
+    private Iterator<byte[]> chunks() {
+        return new Iterator<byte[]>() {
+
+            private int partIndex = 0;
+            private InputStream currentFile = null;
+            private byte[] next = null;
+            private boolean finished = false;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !finished) {
+                    next = advance();
+                }
+                return next != null;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] chunk = next;
+                next = null;
+                return chunk;
+            }
+
+            private byte[] advance() {
+                try {
+                    if (currentFile != null) {
+                        byte[] buffer = new byte[CHUNK_SIZE];
+                        int read = currentFile.readNBytes(buffer, 0, CHUNK_SIZE);
+                        if (read > 0) {
+                            return read == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, read);
+                        }
+                        currentFile.close();
+                        currentFile = null;
+                        partIndex++;
+                        return "\r\n".getBytes(StandardCharsets.US_ASCII);
+                    }
+
+                    if (partIndex == parts.size()) {
+                        finished = true;
+                        return ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+                    }
+
+                    Part part = parts.get(partIndex);
+                    if (part.file != null) {
+                        currentFile = Files.newInputStream(part.file);
+                        return part.header.getBytes(StandardCharsets.UTF_8);
+                    }
+
+                    partIndex++;
+                    return (part.header + "\r\n").getBytes(StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static class Part {
+        private final String header;
+        private final Path file;
+
+        private Part(String header, Path file) {
+            this.header = header;
+            this.file = file;
+        }
+    }
+}
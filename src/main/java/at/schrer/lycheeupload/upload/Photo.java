@@ -0,0 +1,77 @@
+package at.schrer.lycheeupload.upload;
+
+/**
+ * A photo as listed in an album by the server.
+ */
+public class Photo {
+
+    private String photoId;
+    private String title;
+    private String url;
+    private String checksum;
+    private long size;
+
+    /**
+     * @param photoId the ID of the photo.
+     * @param title the title of the photo.
+     * @param url the URL of the original file, either absolute or relative to the server address like "uploads/big/1a2b.jpg".
+     * @param checksum the SHA-1 checksum of the original file (lower case hex), or null if the server doesn't send it.
+     * @param size the size of the original file in bytes, or -1 if the server doesn't send it.
+     */
+    public Photo(String photoId, String title, String url, String checksum, long size) {
+        this.photoId = photoId;
+        this.title = title;
+        this.url = url;
+        this.checksum = checksum;
+        this.size = size;
+    }
+
+    public String getPhotoId() {
+        return photoId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the SHA-1 checksum of the original file (lower case hex), or null if unknown.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the size of the original file in bytes, or -1 if unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the file name of the original on the server, e.g. "1a2b.jpg".
+     */
+    public String getFileName() {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Photo{" +
+                "photoId='" + photoId + '\'' +
+                ", title='" + title + '\'' +
+                ", url='" + url + '\'' +
+                ", checksum='" + checksum + '\'' +
+                ", size=" + size +
+                '}';
+    }
+}
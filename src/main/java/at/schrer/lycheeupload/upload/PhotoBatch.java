@@ -0,0 +1,314 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects changes of photos and sends them with as few requests as possible. Lychee's photo functions take a list of photo
+ * IDs, so all photos that get the same change, e.g. moved into the same album, are changed with one request.
+ * <p>
+ * Of several changes of the same kind to one photo only the last one is sent, and toggling the star twice sends nothing.
+ * Pending changes are sent by {@link #flush()}, when {@link #setMaxPending(int) enough} are collected, when the
+ * {@link #setMaxDelayMillis(long) oldest one} has waited long enough and when the batch is closed. Changes whose request
+ * never reached the server, e.g. because no connection could be opened, are kept for the next flush, unless the photo got
+ * a newer change of that kind in the meantime. All other failures are reported and the changes dropped: the server may
+ * have rejected them for good, like for a deleted photo, or already applied them before the answer got lost. Star toggles
+ * are never sent again, as toggling twice would undo them.
+ * <p>
+ * New photos can be passed in right from a {@link BulkUploader}, e.g. to tag all photos of an import:
+ * <pre>
+ * bulkUploader.setUploadListener((file, photoId) -&gt; batch.setTags(photoId, "import"));
+ * </pre>
+ * All methods are thread safe.
+ */
+public class PhotoBatch implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PhotoBatch.class.getName());
+
+    private static final String TOGGLE = "";
+
+    /**
+     * The kinds of changes, each sent with its own Lychee API function.
+     */
+    public enum Change { ALBUM, TAGS, TITLE, STAR }
+
+    private final LycheeUploaderHttp uploader;
+    private final Map<Change, Map<String, String>> pending = new EnumMap<>(Change.class);
+    private final Object flushLock = new Object();
+    private int pendingCount = 0;
+
+    private int maxPhotosPerRequest = 200;
+    private int maxPending = 1000;
+    private long maxDelayMillis = 0;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed = false;
+
+    /**
+     * @param uploader the logged in uploader to send the changes with.
+     */
+    public PhotoBatch(LycheeUploaderHttp uploader) {
+        this.uploader = uploader;
+        for (Change change : Change.values()) {
+            pending.put(change, new LinkedHashMap<>());
+        }
+    }
+
+    public synchronized int getMaxPhotosPerRequest() {
+        return maxPhotosPerRequest;
+    }
+
+    /**
+     * @param maxPhotosPerRequest the most photo IDs sent in one request, more photos with the same change are split.
+     */
+    public synchronized void setMaxPhotosPerRequest(int maxPhotosPerRequest) {
+        if (maxPhotosPerRequest < 1) {
+            throw new IllegalArgumentException("At least one photo per request is needed.");
+        }
+        this.maxPhotosPerRequest = maxPhotosPerRequest;
+    }
+
+    public synchronized int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @param maxPending the number of pending changes at which the thread adding a change sends all of them.
+     */
+    public synchronized void setMaxPending(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("At least one change has to be pending.");
+        }
+        this.maxPending = maxPending;
+    }
+
+    public synchronized long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param maxDelayMillis the longest time a change waits before it is sent in the background, 0 to only send changes
+     *                       on {@link #flush()}, when enough are pending and on {@link #close()}.
+     */
+    public synchronized void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Moves a photo into an album.
+     * @param photoId the ID of the photo.
+     * @param albumId the ID of the album, "0" for unsorted.
+     * @throws IOException if enough changes are pending to be sent and sending them fails.
+     */
+    public void move(String photoId, String albumId) throws IOException {
+        add(Change.ALBUM, photoId, albumId);
+    }
+
+    /**
+     * Replaces the tags of a photo.
+     * @param photoId the ID of the photo.
+     * @param tags the tags, separated by commas.
+     * @throws IOException if enough changes are pending to be sent and sending them fails.
+     */
+    public void setTags(String photoId, String tags) throws IOException {
+        add(Change.TAGS, photoId, tags);
+    }
+
+    /**
+     * Sets the title of a photo.
+     * @param photoId the ID of the photo.
+     * @param title the title.
+     * @throws IOException if enough changes are pending to be sent and sending them fails.
+     */
+    public void setTitle(String photoId, String title) throws IOException {
+        add(Change.TITLE, photoId, title);
+    }
+
+    /**
+     * Stars a photo that is not starred, or removes its star. Lychee only offers toggling.
+     * @param photoId the ID of the photo.
+     * @throws IOException if enough changes are pending to be sent and sending them fails.
+     */
+    public void toggleStar(String photoId) throws IOException {
+        add(Change.STAR, photoId, TOGGLE);
+    }
+
+    /**
+     * @return the number of changes that are not sent yet.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Sends all pending changes, one request per kind of change and value.
+     * @throws IOException if a request fails. The other requests are sent anyway. Failed changes stay pending if their
+     * request didn't reach the server, otherwise they are dropped and named in the exception.
+     */
+    public void flush() throws IOException {
+        // One flush at a time, so an older change can't overtake a newer one of the same photo
+        synchronized (flushLock) {
+            Map<Change, Map<String, String>> changes = takePending();
+            int maxPhotosPerRequest = getMaxPhotosPerRequest();
+
+            IOException failure = null;
+            for (Map.Entry<Change, Map<String, String>> entry : changes.entrySet()) {
+                for (Map.Entry<String, List<String>> group : groupByValue(entry.getValue()).entrySet()) {
+                    List<String> photoIds = group.getValue();
+                    for (int start = 0; start < photoIds.size(); start += maxPhotosPerRequest) {
+                        List<String> chunk = photoIds.subList(start, Math.min(start + maxPhotosPerRequest, photoIds.size()));
+                        try {
+                            send(entry.getKey(), chunk, group.getKey());
+                        } catch (IOException e) {
+                            IOException reported = e;
+                            if (entry.getKey() != Change.STAR && LycheeUploaderHttp.isUnprocessed(e)) {
+                                restore(entry.getKey(), chunk, group.getKey());
+                            } else {
+                                reported = new IOException("Dropped " + entry.getKey() + " change of photos "
+                                        + String.join(",", chunk) + ": " + e.getMessage(), e);
+                            }
+                            if (failure == null) {
+                                failure = reported;
+                            } else {
+                                failure.addSuppressed(reported);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and sends the pending changes.
+     * @throws IOException if sending the changes fails.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        flush();
+    }
+
+    private void add(Change change, String photoId, String value) throws IOException {
+        boolean full;
+        synchronized (this) {
+            Map<String, String> changes = pending.get(change);
+            int before = changes.size();
+            if (change == Change.STAR && changes.containsKey(photoId)) {
+                // Toggling twice changes nothing
+                changes.remove(photoId);
+            } else {
+                changes.put(photoId, value);
+            }
+            pendingCount += changes.size() - before;
+            full = pendingCount >= maxPending;
+            if (!full) {
+                scheduleFlush();
+            }
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Starts the timer for the oldest pending change, if there is none running.
+     */
+    private void scheduleFlush() {
+        if (closed || maxDelayMillis <= 0 || pendingCount == 0 || (scheduledFlush != null && !scheduledFlush.isDone())) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "photo-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scheduledFlush = scheduler.schedule(this::flushInBackground, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to send photo changes.", e);
+        }
+        synchronized (this) {
+            scheduledFlush = null;
+            scheduleFlush();
+        }
+    }
+
+    private synchronized Map<Change, Map<String, String>> takePending() {
+        Map<Change, Map<String, String>> changes = new EnumMap<>(Change.class);
+        for (Map.Entry<Change, Map<String, String>> entry : pending.entrySet()) {
+            changes.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+            entry.getValue().clear();
+        }
+        pendingCount = 0;
+        return changes;
+    }
+
+    /**
+     * Puts changes that were not sent back, unless a photo got a newer change of the same kind.
+     */
+    private synchronized void restore(Change change, List<String> photoIds, String value) {
+        Map<String, String> changes = pending.get(change);
+        int before = changes.size();
+        for (String photoId : photoIds) {
+            changes.putIfAbsent(photoId, value);
+        }
+        pendingCount += changes.size() - before;
+        scheduleFlush();
+    }
+
+    private static Map<String, List<String>> groupByValue(Map<String, String> changes) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            groups.computeIfAbsent(change.getValue(), value -> new ArrayList<>()).add(change.getKey());
+        }
+        return groups;
+    }
+
+    private void send(Change change, List<String> photoIds, String value) throws IOException {
+        switch (change) {
+            case ALBUM:
+                uploader.movePhotos(photoIds, value);
+                break;
+            case TAGS:
+                uploader.setPhotoTags(photoIds, value);
+                break;
+            case TITLE:
+                uploader.setPhotoTitle(photoIds, value);
+                break;
+            case STAR:
+                uploader.toggleStar(photoIds);
+                break;
+            default:
+                throw new IllegalStateException("Unknown change " + change);
+        }
+    }
+}
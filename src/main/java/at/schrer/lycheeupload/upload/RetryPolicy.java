@@ -0,0 +1,62 @@
+package at.schrer.lycheeupload.upload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and after which delay {@link LycheeUploaderHttp} repeats an upload that the server turned away or that could not connect,
+ * see {@link LycheeUploaderHttp#setRetryPolicy(RetryPolicy)}.
+ * <p>
+ * The delay grows exponentially with each attempt and a random share of it is used ("full jitter"), so uploads that failed
+ * together don't hit the server together again.
+ */
+public class RetryPolicy {
+
+    private int maxRetries = 3;
+    private long baseDelayMillis = 500;
+    private long maxDelayMillis = 30000;
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries how often an upload is repeated at most, 0 disables retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("The number of retries can't be negative.");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * @param baseDelayMillis the upper bound of the delay before the first retry, doubled for each further one.
+     */
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param maxDelayMillis the upper bound of any delay.
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param retry the number of the retry, starting at 0.
+     * @return a random delay between 0 and the exponentially growing upper bound.
+     */
+    public long getDelayMillis(int retry) {
+        long bound = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
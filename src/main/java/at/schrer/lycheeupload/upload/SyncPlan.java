@@ -0,0 +1,110 @@
+package at.schrer.lycheeupload.upload;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link TreeSync} has to do to mirror a directory tree: one album per directory with images, the albums that don't
+ * exist on the server yet and the files that are not uploaded yet.
+ */
+public class SyncPlan {
+
+    private final Path root;
+    private final List<PlannedAlbum> albums;
+
+    SyncPlan(Path root, List<PlannedAlbum> albums) {
+        this.root = root;
+        this.albums = Collections.unmodifiableList(albums);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return one entry per directory that contains images, sorted by title.
+     */
+    public List<PlannedAlbum> getAlbums() {
+        return albums;
+    }
+
+    public int getAlbumsToCreateCount() {
+        int count = 0;
+        for (PlannedAlbum album : albums) {
+            if (album.isNew()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFilesToUploadCount() {
+        int count = 0;
+        for (PlannedAlbum album : albums) {
+            count += album.getFilesToUpload().size();
+        }
+        return count;
+    }
+
+    public int getFilesUpToDateCount() {
+        int count = 0;
+        for (PlannedAlbum album : albums) {
+            count += album.getUpToDateCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return true if every album exists and every file is uploaded.
+     */
+    public boolean isEmpty() {
+        return getAlbumsToCreateCount() == 0 && getFilesToUploadCount() == 0;
+    }
+
+    /**
+     * The album for one directory.
+     */
+    public static class PlannedAlbum {
+        private final String title;
+        private final String albumId;
+        private final List<Path> filesToUpload;
+        private final int upToDateCount;
+
+        PlannedAlbum(String title, String albumId, List<Path> filesToUpload, int upToDateCount) {
+            this.title = title;
+            this.albumId = albumId;
+            this.filesToUpload = Collections.unmodifiableList(filesToUpload);
+            this.upToDateCount = upToDateCount;
+        }
+
+        /**
+         * @return the title of the album, the path of the directory relative to the root.
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return the ID of the existing album, or null if it has to be created.
+         */
+        public String getAlbumId() {
+            return albumId;
+        }
+
+        public boolean isNew() {
+            return albumId == null;
+        }
+
+        public List<Path> getFilesToUpload() {
+            return filesToUpload;
+        }
+
+        /**
+         * @return the number of files the journal knows as uploaded and unchanged.
+         */
+        public int getUpToDateCount() {
+            return upToDateCount;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sends the body of a request no faster than the given {@link BandwidthLimiter}s allow.
+ */
+class ThrottledEntity extends HttpEntityWrapper {
+
+    // Small enough that concurrent uploads interleave smoothly, large enough to keep the locking overhead low
+    private static final int CHUNK_SIZE = 8192;
+
+    private final BandwidthLimiter[] limiters;
+
+    ThrottledEntity(HttpEntity entity, BandwidthLimiter... limiters) {
+        super(entity);
+        this.limiters = limiters;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        super.writeTo(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int chunk = Math.min(len, CHUNK_SIZE);
+                    acquire(chunk);
+                    out.write(b, off, chunk);
+                    off += chunk;
+                    len -= chunk;
+                }
+            }
+        });
+    }
+
+    private void acquire(int bytes) throws IOException {
+        for (BandwidthLimiter limiter : limiters) {
+            limiter.acquire(bytes);
+        }
+    }
+}
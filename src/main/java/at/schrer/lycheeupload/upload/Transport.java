@@ -0,0 +1,38 @@
+package at.schrer.lycheeupload.upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sends the POST requests of {@link LycheeUploaderHttp} to the server, and the GET requests for downloading photos. Everything above it, like the session handling,
+ * limits, retries and metrics, works the same for every transport.
+ * <p>
+ * Request bodies are form or multipart entities, which are written while they are sent. The session is kept in a cookie
+ * store per uploader, so one transport can be shared by several uploaders with different sessions.
+ * Implementations have to be safe for concurrent use. See {@link ConnectionSettings#createTransport()}.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Sends a POST request.
+     * @param url the URL to send the request to.
+     * @param body the body of the request, including its content type.
+     * @param cookies the cookies to send matching ones from, and to store the cookies set by the server in.
+     * @return the response with its body not yet received. It has to be closed by the caller.
+     * @throws IOException if an error occurs while sending the request or receiving the response headers.
+     */
+    CloseableHttpResponse post(String url, HttpEntity body, CookieStore cookies) throws IOException;
+
+    /**
+     * Sends a GET request, e.g. for a photo file.
+     * @param url the URL to send the request to.
+     * @param cookies the cookies to send matching ones from, and to store the cookies set by the server in.
+     * @return the response with its body not yet received, so it can be streamed. It has to be closed by the caller.
+     * @throws IOException if an error occurs while sending the request or receiving the response headers.
+     */
+    CloseableHttpResponse get(String url, CookieStore cookies) throws IOException;
+}
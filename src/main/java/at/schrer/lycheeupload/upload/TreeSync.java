@@ -0,0 +1,183 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Mirrors a directory tree into albums. Lychee albums are flat, so every directory that contains images becomes an album
+ * titled with its path relative to the root, e.g. "2019/Vacation". Images directly in the root go to an album named like the root.
+ * <p>
+ * {@link #plan(Path)} scans the tree and loads the album list once, and computes which albums have to be created and which
+ * files to upload. Files are compared with the journal of the {@link BulkUploader}, without a journal all files of existing
+ * albums are uploaded again. {@link #run(SyncPlan)} creates the missing albums one after another while the uploads into
+ * albums that already exist are running, and starts the uploads into each new album as soon as it is created.
+ */
+public class TreeSync {
+
+    private final LycheeUploaderHttp uploader;
+    private final BulkUploader bulkUploader;
+    private AlbumAccess newAlbumAccess;
+
+    /**
+     * @param uploader the uploader to create albums with.
+     * @param bulkUploader the uploader for the files, with its threads and journal.
+     */
+    public TreeSync(LycheeUploaderHttp uploader, BulkUploader bulkUploader) {
+        this.uploader = uploader;
+        this.bulkUploader = bulkUploader;
+    }
+
+    public AlbumAccess getNewAlbumAccess() {
+        return newAlbumAccess;
+    }
+
+    /**
+     * @param newAlbumAccess the access settings applied to every album that is created, or null for the server's defaults.
+     */
+    public void setNewAlbumAccess(AlbumAccess newAlbumAccess) {
+        this.newAlbumAccess = newAlbumAccess;
+    }
+
+    /**
+     * Computes what has to be done to mirror a directory tree.
+     * @param root the directory to mirror.
+     * @return the plan.
+     * @throws IOException if the tree can't be read or the album list can't be loaded.
+     */
+    public SyncPlan plan(Path root) throws IOException {
+        Map<String, List<Path>> filesByTitle = new TreeMap<>();
+        for (Path image : BulkUploader.collectImages(root)) {
+            filesByTitle.computeIfAbsent(albumTitle(root, image.getParent()), title -> new ArrayList<>()).add(image);
+        }
+
+        Map<String, String> existingIds = new HashMap<>();
+        for (Album album : uploader.getStandardAlbums()) {
+            // The first album with a title wins, like in findAlbumByName
+            existingIds.putIfAbsent(album.getName(), album.getAlbumId());
+        }
+
+        UploadJournal journal = bulkUploader.getJournal();
+        List<SyncPlan.PlannedAlbum> albums = new ArrayList<>();
+
+        for (Map.Entry<String, List<Path>> entry : filesByTitle.entrySet()) {
+            String albumId = existingIds.get(entry.getKey());
+            List<Path> toUpload = new ArrayList<>();
+            int upToDate = 0;
+
+            for (Path file : entry.getValue()) {
+                if (albumId != null && journal != null && isUploaded(journal, albumId, file)) {
+                    upToDate++;
+                } else {
+                    toUpload.add(file);
+                }
+            }
+            albums.add(new SyncPlan.PlannedAlbum(entry.getKey(), albumId, toUpload, upToDate));
+        }
+
+        return new SyncPlan(root, albums);
+    }
+
+    /**
+     * Creates the missing albums and uploads the missing files of a plan.
+     * @param plan the plan from {@link #plan(Path)}.
+     * @return one result per file to upload. If an album can't be created, all its files are reported as failed.
+     */
+    public UploadReport run(SyncPlan plan) {
+        long start = System.currentTimeMillis();
+
+        ExecutorService workers = Executors.newFixedThreadPool(bulkUploader.getThreads());
+        ExecutorService albumCreator = Executors.newSingleThreadExecutor();
+        try {
+            List<SyncPlan.PlannedAlbum> albums = new ArrayList<>(plan.getAlbums());
+            // Start with the albums that exist, so uploads are running while the others are created
+            albums.sort((a, b) -> Boolean.compare(a.isNew(), b.isNew()));
+
+            List<CompletableFuture<List<Future<UploadResult>>>> submitted = new ArrayList<>();
+            for (SyncPlan.PlannedAlbum album : albums) {
+                if (album.getFilesToUpload().isEmpty() && !album.isNew()) {
+                    continue;
+                }
+
+                CompletableFuture<String> albumId = album.isNew()
+                        ? CompletableFuture.supplyAsync(() -> createAlbum(album.getTitle()), albumCreator)
+                        : CompletableFuture.completedFuture(album.getAlbumId());
+
+                submitted.add(albumId.handle((id, error) -> {
+                    List<Future<UploadResult>> futures = new ArrayList<>();
+                    if (error != null) {
+                        Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+                        Exception albumError = (cause instanceof Exception) ? (Exception) cause : new IOException(cause);
+                        for (Path file : album.getFilesToUpload()) {
+                            futures.add(CompletableFuture.completedFuture(UploadResult.failure(file, albumError)));
+                        }
+                    } else {
+                        ChecksumIndex index = bulkUploader.getChecksumIndex();
+                        if (index != null && album.isNew()) {
+                            index.addEmptyAlbum(id);
+                        }
+                        bulkUploader.submitAll(id, album.getFilesToUpload(), workers, futures);
+                    }
+                    return futures;
+                }));
+            }
+
+            List<UploadResult> results = new ArrayList<>(plan.getFilesToUploadCount());
+            for (CompletableFuture<List<Future<UploadResult>>> albumFutures : submitted) {
+                for (Future<UploadResult> future : albumFutures.join()) {
+                    results.add(BulkUploader.waitFor(future));
+                }
+            }
+
+            return new UploadReport(results, System.currentTimeMillis() - start);
+        } finally {
+            albumCreator.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    private String createAlbum(String title) {
+        try {
+            String albumId = uploader.createAlbum(title);
+            if (!LycheeUploaderHttp.isInteger(albumId)) {
+                throw new IOException("Could not create album " + title + ". Server Response: " + albumId);
+            }
+            if (newAlbumAccess != null) {
+                newAlbumAccess.applyTo(uploader, albumId);
+            }
+            return albumId;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static boolean isUploaded(UploadJournal journal, String albumId, Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return journal.findUnchanged(albumId, file, attributes.size(), attributes.lastModifiedTime().toMillis()) != null;
+        } catch (IOException e) {
+            // Let the upload report the problem
+            return false;
+        }
+    }
+
+    private static String albumTitle(Path root, Path directory) {
+        Path relative = root.relativize(directory);
+        if (relative.toString().isEmpty()) {
+            Path name = root.toAbsolutePath().normalize().getFileName();
+            return (name == null) ? "/" : name.toString();
+        }
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+}
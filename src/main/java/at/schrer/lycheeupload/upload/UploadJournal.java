@@ -0,0 +1,330 @@
+package at.schrer.lycheeupload.upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only log on disk that records the state of every file of a bulk upload, so an interrupted upload can be resumed
+ * without uploading files twice. Entries are kept per album and file path together with size, modification time and
+ * SHA-1 checksum of the file, the latest record for a file wins.
+ * <p>
+ * A file whose size and modification time are unchanged since it was recorded as {@link State#DONE} can be skipped without
+ * reading it. A changed file is only skipped if its checksum matches a finished upload to the same album.
+ * <p>
+ * The log is read into memory on {@link #open(Path)} and rewritten without outdated records if it grew to more than twice
+ * the number of files it describes. Every record is flushed on writing, so it survives a crash of the JVM.
+ */
+public class UploadJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadJournal.class.getName());
+
+    private static final String SEPARATOR = "\t";
+    private static final int FIELD_COUNT = 7;
+
+    public enum State { QUEUED, IN_FLIGHT, DONE, FAILED }
+
+    private final Path journalFile;
+    private final Map<String, Entry> entriesByFile = new HashMap<>();
+    private final Map<String, Entry> doneByChecksum = new HashMap<>();
+    private Writer writer;
+
+    private UploadJournal(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Opens a journal file, creating it if it doesn't exist yet.
+     * @param journalFile the path to the journal.
+     * @return the journal with all previously recorded entries loaded.
+     * @throws IOException if the journal can't be read or written.
+     */
+    public static UploadJournal open(Path journalFile) throws IOException {
+        UploadJournal journal = new UploadJournal(journalFile);
+        int records = journal.load();
+
+        if (records > 2 * journal.entriesByFile.size()) {
+            journal.compact();
+        }
+
+        journal.writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+
+        if (!endsWithLineBreak(journalFile)) {
+            // Terminate a record that was cut off, so it does not swallow the next one
+            journal.writer.write('\n');
+            journal.writer.flush();
+        }
+        return journal;
+    }
+
+    /**
+     * Gets the latest entry for a file.
+     * @param albumId the album the file is uploaded to.
+     * @param file the file.
+     * @return the entry or null if the file was never recorded for this album.
+     */
+    public synchronized Entry getEntry(String albumId, Path file) {
+        return entriesByFile.get(fileKey(albumId, file));
+    }
+
+    /**
+     * Checks if a file was already uploaded to an album and has not changed since, without reading the file.
+     * @param albumId the album the file is uploaded to.
+     * @param file the file.
+     * @param size the current size of the file.
+     * @param lastModified the current modification time of the file in milliseconds.
+     * @return the finished entry, or null if the file has to be checked by checksum or uploaded.
+     */
+    public synchronized Entry findUnchanged(String albumId, Path file, long size, long lastModified) {
+        Entry entry = entriesByFile.get(fileKey(albumId, file));
+        if (entry != null && entry.state == State.DONE && entry.size == size && entry.lastModified == lastModified) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Finds a finished upload to an album with the given checksum, e.g. of a file that was renamed or touched.
+     * @param albumId the album the file is uploaded to.
+     * @param checksum the SHA-1 checksum of the file.
+     * @return the finished entry or null.
+     */
+    public synchronized Entry findDoneByChecksum(String albumId, String checksum) {
+        return doneByChecksum.get(checksumKey(albumId, checksum));
+    }
+
+    /**
+     * Records a new state for a file. Checksum and image ID may be null if they are not known yet.
+     * @param entry the new entry for the file.
+     * @throws IOException if writing to the journal fails.
+     */
+    public synchronized void record(Entry entry) throws IOException {
+        write(entry);
+        writer.flush();
+    }
+
+    /**
+     * Records the state of several files with a single flush.
+     * @param entries the new entries.
+     * @throws IOException if writing to the journal fails.
+     */
+    public synchronized void recordAll(Iterable<Entry> entries) throws IOException {
+        for (Entry entry : entries) {
+            write(entry);
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        writer.write(entry.toLine());
+        writer.write('\n');
+        apply(entry);
+    }
+
+    private void apply(Entry entry) {
+        entriesByFile.put(fileKey(entry.albumId, entry.file), entry);
+        if (entry.state == State.DONE && entry.checksum != null) {
+            doneByChecksum.put(checksumKey(entry.albumId, entry.checksum), entry);
+        }
+    }
+
+    /**
+     * Reads all records of the journal file.
+     * @return the number of records read.
+     */
+    private int load() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Entry entry = Entry.fromLine(line);
+                if (entry == null) {
+                    // Most likely a record that was cut off by a crash
+                    LOGGER.log(Level.WARNING, "Ignoring malformed journal record: {0}", line);
+                    continue;
+                }
+                apply(entry);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Rewrites the journal with only the latest record per file and atomically replaces the old file.
+     */
+    private void compact() throws IOException {
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+
+        try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Entry entry : entriesByFile.values()) {
+                out.write(entry.toLine());
+                out.write('\n');
+            }
+        }
+
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean endsWithLineBreak(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, channel.size() - 1);
+            return lastByte.get(0) == '\n';
+        }
+    }
+
+    private static String fileKey(String albumId, Path file) {
+        return albumId + SEPARATOR + file.toAbsolutePath().normalize();
+    }
+
+    private static String checksumKey(String albumId, String checksum) {
+        return albumId + SEPARATOR + checksum;
+    }
+
+    /**
+     * One record of the journal.
+     */
+    public static class Entry {
+
+        private final State state;
+        private final String albumId;
+        private final Path file;
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+        private final String imageId;
+
+        public Entry(State state, String albumId, Path file, long size, long lastModified, String checksum, String imageId) {
+            this.state = state;
+            this.albumId = albumId;
+            this.file = file.toAbsolutePath().normalize();
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.imageId = imageId;
+        }
+
+        /**
+         * Creates a copy of this entry with a new state.
+         * @param state the new state.
+         * @param imageId the image ID, if known.
+         * @return the new entry.
+         */
+        public Entry withState(State state, String imageId) {
+            return new Entry(state, albumId, file, size, lastModified, checksum, imageId);
+        }
+
+        /**
+         * Creates a copy of this entry with a checksum.
+         * @param checksum the SHA-1 checksum of the file.
+         * @return the new entry.
+         */
+        public Entry withChecksum(String checksum) {
+            return new Entry(state, albumId, file, size, lastModified, checksum, imageId);
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getAlbumId() {
+            return albumId;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public String getImageId() {
+            return imageId;
+        }
+
+        /**
+         * The file path is written last, since it is the only field that may contain the separator.
+         * Line breaks and backslashes in the path are escaped.
+         */
+        private String toLine() {
+            return state + SEPARATOR + albumId + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR
+                    + (checksum == null ? "-" : checksum) + SEPARATOR + (imageId == null ? "-" : imageId) + SEPARATOR
+                    + file.toString().replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+        }
+
+        private static Entry fromLine(String line) {
+            String[] fields = line.split(SEPARATOR, FIELD_COUNT);
+            if (fields.length != FIELD_COUNT) {
+                return null;
+            }
+
+            try {
+                State state = State.valueOf(fields[0]);
+                long size = Long.parseLong(fields[2]);
+                long lastModified = Long.parseLong(fields[3]);
+                String checksum = "-".equals(fields[4]) ? null : fields[4];
+                String imageId = "-".equals(fields[5]) ? null : fields[5];
+                Path file = Path.of(unescape(fields[6]));
+
+                return new Entry(state, fields[1], file, size, lastModified, checksum, imageId);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static String unescape(String path) {
+            StringBuilder result = new StringBuilder(path.length());
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '\\' && i + 1 < path.length()) {
+                    char next = path.charAt(++i);
+                    result.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+                } else {
+                    result.append(c);
+                }
+            }
+            return result.toString();
+        }
+    }
+}
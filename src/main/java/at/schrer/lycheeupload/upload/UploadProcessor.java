@@ -0,0 +1,118 @@
+package at.schrer.lycheeupload.upload;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads the paths it receives from an upstream publisher and publishes one {@link UploadResult} per path.
+ * Backpressure is applied by requesting a new path from upstream only after an upload has finished,
+ * so there are never more than maxInFlight uploads running. Created by {@link LycheeUploaderAsync#uploadStream(String, int)}.
+ * <p>
+ * Results are published from a thread of the processor, one at a time. A slow subscriber holds up this thread, and with it
+ * the next uploads, but never the threads of the HTTP client.
+ */
+public class UploadProcessor implements Flow.Processor<Path, UploadResult> {
+
+    private final LycheeUploaderAsync uploader;
+    private final String albumId;
+    private final int maxInFlight;
+    private final SubmissionPublisher<UploadResult> results = new SubmissionPublisher<>();
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lychee-upload-results");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean upstreamCompleted = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+
+    UploadProcessor(LycheeUploaderAsync uploader, String albumId, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one upload needs to be allowed in flight.");
+        }
+        this.uploader = uploader;
+        this.albumId = albumId;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(Path file) {
+        inFlight.incrementAndGet();
+
+        uploader.uploadImage(albumId, file.toString())
+                .whenCompleteAsync((imageId, error) -> deliver(file, imageId, error), delivery);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        delivery.execute(() -> {
+            if (closed.compareAndSet(false, true)) {
+                results.closeExceptionally(throwable);
+            }
+            closeIfDone();
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        delivery.execute(() -> {
+            upstreamCompleted.set(true);
+            closeIfDone();
+        });
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super UploadResult> subscriber) {
+        results.subscribe(subscriber);
+    }
+
+    /**
+     * Publishes the result of an upload and asks for the next path. Runs on the delivery thread, so results, completion and
+     * errors are handled in order. Results of uploads that finish after the stream failed are dropped.
+     */
+    private void deliver(Path file, String imageId, Throwable error) {
+        if (!closed.get()) {
+            if (error == null) {
+                results.submit(UploadResult.success(file, imageId));
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                Exception exception = cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                results.submit(UploadResult.failure(file, exception));
+            }
+        }
+
+        inFlight.decrementAndGet();
+        if (upstreamCompleted.get() || closed.get()) {
+            closeIfDone();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    private void closeIfDone() {
+        if (inFlight.get() == 0) {
+            if (closed.compareAndSet(false, true)) {
+                results.close();
+            }
+            delivery.shutdown();
+        }
+    }
+}
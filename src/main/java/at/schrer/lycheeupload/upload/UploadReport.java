@@ -0,0 +1,67 @@
+package at.schrer.lycheeupload.upload;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a bulk upload, one entry per file in the order the files were given.
+ */
+public class UploadReport {
+
+    private final List<UploadResult> results;
+    private final long durationMillis;
+    private final UploadSchedule schedule;
+
+    public UploadReport(List<UploadResult> results, long durationMillis) {
+        this(results, durationMillis, null);
+    }
+
+    public UploadReport(List<UploadResult> results, long durationMillis, UploadSchedule schedule) {
+        this.results = Collections.unmodifiableList(results);
+        this.durationMillis = durationMillis;
+        this.schedule = schedule;
+    }
+
+    public List<UploadResult> getResults() {
+        return results;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the order the uploads were started in and the time they were expected to take, or null if unknown.
+     */
+    public UploadSchedule getSchedule() {
+        return schedule;
+    }
+
+    public int getSuccessCount() {
+        int count = 0;
+        for (UploadResult result : results) {
+            if (result.isSuccessful()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getSkippedCount() {
+        int count = 0;
+        for (UploadResult result : results) {
+            if (result.isSkipped()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailureCount() {
+        return results.size() - getSuccessCount();
+    }
+
+    public boolean isSuccessful() {
+        return getFailureCount() == 0;
+    }
+}
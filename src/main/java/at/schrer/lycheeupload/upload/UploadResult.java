@@ -0,0 +1,78 @@
+package at.schrer.lycheeupload.upload;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of uploading a single file as part of a bulk upload. Either the image ID or the error is set.
+ */
+public class UploadResult {
+
+    private final Path file;
+    private final String imageId;
+    private final Exception error;
+    private final boolean skipped;
+
+    private UploadResult(Path file, String imageId, Exception error, boolean skipped) {
+        this.file = file;
+        this.imageId = imageId;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    public static UploadResult success(Path file, String imageId) {
+        return new UploadResult(file, imageId, null, false);
+    }
+
+    /**
+     * Creates the result for a file that was not uploaded, because it already is on the server.
+     * @param file the file.
+     * @param imageId the ID of the existing image.
+     * @return the result.
+     */
+    public static UploadResult skipped(Path file, String imageId) {
+        return new UploadResult(file, imageId, null, true);
+    }
+
+    public static UploadResult failure(Path file, Exception error) {
+        return new UploadResult(file, null, error, false);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the ID of the uploaded image, or null if the upload failed.
+     */
+    public String getImageId() {
+        return imageId;
+    }
+
+    /**
+     * @return the reason the upload failed, or null if it was successful.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * @return true if the file was already on the server and has not been uploaded again.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadResult{" +
+                "file='" + file + '\'' +
+                ", imageId='" + imageId + '\'' +
+                ", error=" + error +
+                ", skipped=" + skipped +
+                '}';
+    }
+}
@@ -0,0 +1,227 @@
+package at.schrer.lycheeupload.upload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The order in which a {@link BulkUploader} starts the uploads of a batch, chosen by file size, and the time the batch
+ * was expected to take in that order compared to the time it took.
+ * <p>
+ * The workers take the next file from one shared queue when they become free. Started largest first this is the LPT rule
+ * for packing the files onto the workers, which finishes within 4/3 of the shortest possible time, as a large file can't
+ * be left over for the end anymore. Started smallest first most files are done early, at the cost of a longer tail.
+ * <p>
+ * The expected time is a simulation of the workers, with the time of each upload modelled as a fixed time per request
+ * plus its size divided by the throughput of one worker. Both are fitted to the measured uploads of the batch, so the
+ * difference to the actual time shows the cost of waiting for bandwidth, the server or the order of the files.
+ */
+public class UploadSchedule {
+
+    /**
+     * The order in which the uploads of a batch are started. The results are reported in the given order in any case.
+     */
+    public enum Order {
+        /** In the given order, e.g. sorted by path. */
+        GIVEN,
+        /** Largest files first, to finish the whole batch as early as possible. */
+        LARGEST_FIRST,
+        /** Smallest files first, to get the most files uploaded early. */
+        SMALLEST_FIRST
+    }
+
+    private final long[] sizes;
+    private final int workers;
+    private final Order order;
+    private final List<Integer> startOrder;
+    private final long[] durations;
+    private final boolean[] uploaded;
+
+    /**
+     * @param sizes the size of each file of the batch in bytes, 0 if it is unknown.
+     * @param workers the number of concurrent uploads.
+     * @param order the order to start the uploads in.
+     */
+    UploadSchedule(long[] sizes, int workers, Order order) {
+        this.sizes = sizes;
+        this.workers = Math.max(1, Math.min(workers, sizes.length));
+        this.order = order;
+        this.startOrder = sort(sizes, order);
+        this.durations = new long[sizes.length];
+        this.uploaded = new boolean[sizes.length];
+        Arrays.fill(durations, -1);
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return the indexes of the files in the order their uploads are started.
+     */
+    public List<Integer> getStartOrder() {
+        return startOrder;
+    }
+
+    /**
+     * Records how long a file took on its worker, including reading, checking and uploading it.
+     * @param index the index of the file.
+     * @param millis the time in milliseconds.
+     * @param upload true if the file was uploaded, false if it was skipped or failed.
+     */
+    void record(int index, long millis, boolean upload) {
+        synchronized (durations) {
+            durations[index] = millis;
+            uploaded[index] = upload;
+        }
+    }
+
+    /**
+     * @return the fixed time of one request in milliseconds, fitted to the measured uploads.
+     */
+    public double getRequestMillis() {
+        return fit()[0];
+    }
+
+    /**
+     * @return the throughput of one worker in bytes per millisecond, fitted to the measured uploads, or 0 if the sizes
+     * of the files don't vary enough to tell it from the time per request.
+     */
+    public double getBytesPerMilli() {
+        double millisPerByte = fit()[1];
+        return (millisPerByte > 0) ? 1 / millisPerByte : 0;
+    }
+
+    /**
+     * @return the time the batch is expected to take in the order of this schedule, in milliseconds.
+     */
+    public long getExpectedMillis() {
+        return simulate(startOrder);
+    }
+
+    /**
+     * Simulates the batch in another order, to compare the orders for the same files and measured throughput.
+     * @param otherOrder the order to simulate.
+     * @return the time the batch is expected to take in this order, in milliseconds.
+     */
+    public long getExpectedMillis(Order otherOrder) {
+        return simulate(sort(sizes, otherOrder));
+    }
+
+    /**
+     * @return the time the batch can't be faster than with its number of workers, even if the files could be split:
+     * the longer of the longest file and the sum of all files divided among the workers, in milliseconds.
+     */
+    public long getLowerBoundMillis() {
+        long[] modelled = modelledDurations();
+        long sum = 0;
+        long longest = 0;
+        for (long duration : modelled) {
+            sum += duration;
+            longest = Math.max(longest, duration);
+        }
+        return Math.max(longest, (sum + workers - 1) / workers);
+    }
+
+    private long simulate(List<Integer> indexes) {
+        long[] modelled = modelledDurations();
+
+        // The time each worker becomes free, a worker takes the next file as soon as it is free
+        PriorityQueue<Long> freeAt = new PriorityQueue<>();
+        for (int i = 0; i < workers; i++) {
+            freeAt.add(0L);
+        }
+        long end = 0;
+        for (int index : indexes) {
+            long finish = freeAt.poll() + modelled[index];
+            freeAt.add(finish);
+            end = Math.max(end, finish);
+        }
+        return end;
+    }
+
+    /**
+     * Uploaded files take the time of the model, others, like skipped or failed ones, the time they were measured with.
+     */
+    private long[] modelledDurations() {
+        double[] model = fit();
+        synchronized (durations) {
+            long[] modelled = new long[durations.length];
+            for (int i = 0; i < durations.length; i++) {
+                if (uploaded[i]) {
+                    modelled[i] = Math.round(model[0] + model[1] * sizes[i]);
+                } else {
+                    // Files that were never started, because the journal knows them, take no time
+                    modelled[i] = Math.max(0, durations[i]);
+                }
+            }
+            return modelled;
+        }
+    }
+
+    /**
+     * Fits the time per request and the time per byte to the measured durations by least squares.
+     * @return the time per request and the time per byte, in milliseconds.
+     */
+    private double[] fit() {
+        long[] measured;
+        synchronized (durations) {
+            measured = durations.clone();
+            for (int i = 0; i < measured.length; i++) {
+                if (!uploaded[i]) {
+                    measured[i] = -1;
+                }
+            }
+        }
+
+        int count = 0;
+        double sumSize = 0;
+        double sumMillis = 0;
+        for (int i = 0; i < measured.length; i++) {
+            if (measured[i] >= 0) {
+                count++;
+                sumSize += sizes[i];
+                sumMillis += measured[i];
+            }
+        }
+        if (count == 0) {
+            return new double[] {0, 0};
+        }
+
+        double meanSize = sumSize / count;
+        double meanMillis = sumMillis / count;
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < measured.length; i++) {
+            if (measured[i] >= 0) {
+                covariance += (sizes[i] - meanSize) * (measured[i] - meanMillis);
+                variance += (sizes[i] - meanSize) * (sizes[i] - meanSize);
+            }
+        }
+
+        double millisPerByte = (variance > 0) ? Math.max(0, covariance / variance) : 0;
+        double requestMillis = Math.max(0, meanMillis - millisPerByte * meanSize);
+        return new double[] {requestMillis, millisPerByte};
+    }
+
+    private static List<Integer> sort(long[] sizes, Order order) {
+        List<Integer> indexes = new ArrayList<>(sizes.length);
+        for (int i = 0; i < sizes.length; i++) {
+            indexes.add(i);
+        }
+        // The sort is stable, so files of the same size keep their given order
+        if (order == Order.LARGEST_FIRST) {
+            indexes.sort(Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+        } else if (order == Order.SMALLEST_FIRST) {
+            indexes.sort(Comparator.comparingLong(i -> sizes[i]));
+        }
+        return Collections.unmodifiableList(indexes);
+    }
+}
@@ -0,0 +1,76 @@
+package at.schrer.lycheeupload.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes file checksums the same way Lychee does (SHA-1, lower case hex), reading the file in fixed size chunks.
+ */
+public class Checksums {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Checksums(){}
+
+    /**
+     * Computes the SHA-1 checksum of a file.
+     * @param file the file to hash.
+     * @return the checksum as lower case hex string.
+     * @throws IOException if the file can't be read.
+     */
+    public static String sha1(Path file) throws IOException {
+        MessageDigest digest = newSha1();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-1 checksum of data in memory, e.g. an image that was scaled before uploading.
+     * @param data the data to hash.
+     * @return the checksum as lower case hex string.
+     */
+    public static String sha1(byte[] data) {
+        return toHex(newSha1().digest(data));
+    }
+
+    /**
+     * @return a new SHA-1 digest.
+     */
+    public static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts bytes to a lower case hex string.
+     * @param bytes the bytes to convert.
+     * @return the hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -1,18 +1,33 @@
 package at.schrer.lycheeupload.util;
 
 import java.io.*;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 
 /**
  * A class for storing the configuration for login information to the Lychee server.
  * Can be used with or without a config file, none of the variables are enforced to not be null.
+ * <p>
+ * Further servers can be configured as named profiles, e.g. "profile.mirror.server", "profile.mirror.username" and
+ * "profile.mirror.password". Username and password of a profile default to the ones without profile.
  */
 public class LoginConfig {
 
+    private static final String PROFILE_PREFIX = "profile.";
+
     private String serverAddress=null;
     private String username=null;
     private String password=null;
+    private Long rateLimit=null;
+    private String transport=null;
+    private String newAlbumPassword=null;
+    private Boolean newAlbumPublic=null;
+    private Boolean newAlbumVisible=null;
+    private Boolean newAlbumDownloadable=null;
+    private final Map<String, LoginConfig> profiles = new TreeMap<>();
 
     public LoginConfig(String configPath) throws IOException {
         File configFile = new File(configPath);
@@ -24,8 +39,35 @@ public class LoginConfig {
         this.serverAddress  = properties.getProperty("server");
         this.username       = properties.getProperty("username");
         this.password       = properties.getProperty("password");
+        this.transport      = properties.getProperty("transport");
+
+        this.newAlbumPassword     = properties.getProperty("albumpassword");
+        this.newAlbumPublic       = getBoolean(properties, "albumpublic");
+        this.newAlbumVisible      = getBoolean(properties, "albumvisible");
+        this.newAlbumDownloadable = getBoolean(properties, "albumdownloadable");
 
         stream.close();
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PROFILE_PREFIX) && key.endsWith(".server")) {
+                String name = key.substring(PROFILE_PREFIX.length(), key.length() - ".server".length());
+                LoginConfig profile = new LoginConfig();
+                profile.setServerAddress(properties.getProperty(key));
+                profile.setUsername(properties.getProperty(PROFILE_PREFIX + name + ".username", username));
+                profile.setPassword(properties.getProperty(PROFILE_PREFIX + name + ".password", password));
+                profile.setTransport(properties.getProperty(PROFILE_PREFIX + name + ".transport", transport));
+                profiles.put(name, profile);
+            }
+        }
+
+        String rateLimitProperty = properties.getProperty("ratelimit");
+        if (rateLimitProperty != null && !rateLimitProperty.trim().isEmpty()) {
+            try {
+                this.rateLimit = Long.parseLong(rateLimitProperty.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("ratelimit has to be a number of KiB/s: " + rateLimitProperty, e);
+            }
+        }
     }
 
     public LoginConfig(){}
@@ -54,6 +96,104 @@ public class LoginConfig {
         this.password = password;
     }
 
+    /**
+     * @return the maximum upload rate in KiB/s, or null if it is not limited.
+     */
+    public Long getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(Long rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * @return the transport to send requests with, "apache" or "http2", or null for the default.
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return the password for albums created by a sync, or null.
+     */
+    public String getNewAlbumPassword() {
+        return newAlbumPassword;
+    }
+
+    public void setNewAlbumPassword(String newAlbumPassword) {
+        this.newAlbumPassword = newAlbumPassword;
+    }
+
+    /**
+     * @return if albums created by a sync are public, or null if not configured.
+     */
+    public Boolean getNewAlbumPublic() {
+        return newAlbumPublic;
+    }
+
+    public void setNewAlbumPublic(Boolean newAlbumPublic) {
+        this.newAlbumPublic = newAlbumPublic;
+    }
+
+    /**
+     * @return if albums created by a sync are visible, or null if not configured.
+     */
+    public Boolean getNewAlbumVisible() {
+        return newAlbumVisible;
+    }
+
+    public void setNewAlbumVisible(Boolean newAlbumVisible) {
+        this.newAlbumVisible = newAlbumVisible;
+    }
+
+    /**
+     * @return if albums created by a sync are downloadable, or null if not configured.
+     */
+    public Boolean getNewAlbumDownloadable() {
+        return newAlbumDownloadable;
+    }
+
+    public void setNewAlbumDownloadable(Boolean newAlbumDownloadable) {
+        this.newAlbumDownloadable = newAlbumDownloadable;
+    }
+
+    /**
+     * Checks if any access setting for new albums is configured.
+     * @return true if at least one of the album settings is not null.
+     */
+    public boolean hasNewAlbumAccess() {
+        return newAlbumPassword != null || newAlbumPublic != null || newAlbumVisible != null || newAlbumDownloadable != null;
+    }
+
+    /**
+     * @return the named server profiles, sorted by name.
+     */
+    public Map<String, LoginConfig> getProfiles() {
+        return Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     * @param name the name of the profile.
+     * @return the login information of the profile, or null if there is no such profile.
+     */
+    public LoginConfig getProfile(String name) {
+        return profiles.get(name);
+    }
+
+    public void setProfile(String name, LoginConfig profile) {
+        profiles.put(name, profile);
+    }
+
+    private static Boolean getBoolean(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        return (value == null) ? null : Boolean.valueOf(value.trim());
+    }
+
     /**
      * Checks if all three fields are set.
      * @return true if none of the fields is null, false otherwise.
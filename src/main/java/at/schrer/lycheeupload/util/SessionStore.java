@@ -0,0 +1,151 @@
+package at.schrer.lycheeupload.util;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores the session cookies of a Lychee login in a file that only the current user can read, so a later run can reuse the session
+ * instead of logging in again. A stored session is only handed out for the server and user it was created for.
+ */
+public class SessionStore {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionStore.class.getName());
+
+    private final Path sessionFile;
+
+    public SessionStore(Path sessionFile) {
+        this.sessionFile = sessionFile;
+    }
+
+    public Path getSessionFile() {
+        return sessionFile;
+    }
+
+    /**
+     * Loads the stored, not yet expired cookies into a cookie store.
+     * @param serverAddress the server the session is needed for.
+     * @param username the user the session is needed for.
+     * @param cookieStore the store to add the cookies to.
+     * @return true if at least one cookie was loaded.
+     */
+    public boolean load(String serverAddress, String username, CookieStore cookieStore) {
+        if (!Files.isRegularFile(sessionFile)) {
+            return false;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(sessionFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, "Unable to read stored session, will log in again.", e);
+            return false;
+        }
+
+        if (!serverAddress.equals(properties.getProperty("server")) || !username.equals(properties.getProperty("username"))) {
+            return false;
+        }
+
+        Date now = new Date();
+        boolean loaded = false;
+
+        for (int i = 0; properties.getProperty("cookie." + i + ".name") != null; i++) {
+            String prefix = "cookie." + i + ".";
+
+            BasicClientCookie cookie = new BasicClientCookie(properties.getProperty(prefix + "name"), properties.getProperty(prefix + "value"));
+            cookie.setDomain(properties.getProperty(prefix + "domain"));
+            cookie.setPath(properties.getProperty(prefix + "path"));
+            cookie.setSecure(Boolean.parseBoolean(properties.getProperty(prefix + "secure")));
+
+            String expiry = properties.getProperty(prefix + "expiry");
+            if (expiry != null) {
+                cookie.setExpiryDate(new Date(Long.parseLong(expiry)));
+            }
+
+            if (!cookie.isExpired(now)) {
+                cookieStore.addCookie(cookie);
+                loaded = true;
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Writes the cookies of a session to the file, replacing an older session. The file is created with permissions
+     * for the owner only, where the file system supports POSIX permissions.
+     * @param serverAddress the server the session belongs to.
+     * @param username the user the session belongs to.
+     * @param cookieStore the cookies of the session.
+     * @throws IOException if the file can't be written.
+     */
+    public void save(String serverAddress, String username, CookieStore cookieStore) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("server", serverAddress);
+        properties.setProperty("username", username);
+
+        List<Cookie> cookies = cookieStore.getCookies();
+        for (int i = 0; i < cookies.size(); i++) {
+            Cookie cookie = cookies.get(i);
+            String prefix = "cookie." + i + ".";
+
+            properties.setProperty(prefix + "name", cookie.getName());
+            properties.setProperty(prefix + "value", cookie.getValue() == null ? "" : cookie.getValue());
+            if (cookie.getDomain() != null) {
+                properties.setProperty(prefix + "domain", cookie.getDomain());
+            }
+            if (cookie.getPath() != null) {
+                properties.setProperty(prefix + "path", cookie.getPath());
+            }
+            properties.setProperty(prefix + "secure", Boolean.toString(cookie.isSecure()));
+            if (cookie.getExpiryDate() != null) {
+                properties.setProperty(prefix + "expiry", Long.toString(cookie.getExpiryDate().getTime()));
+            }
+        }
+
+        Path directory = sessionFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+
+        Path tempFile = createPrivateTempFile(directory);
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, "Lychee session, do not share");
+            }
+            Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Removes the stored session.
+     * @throws IOException if the file can't be deleted.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(sessionFile);
+    }
+
+    private Path createPrivateTempFile(Path directory) throws IOException {
+        String prefix = sessionFile.getFileName().toString();
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile(directory, prefix, ".tmp",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        return Files.createTempFile(directory, prefix, ".tmp");
+    }
+}